@@ -61,6 +61,13 @@ public class AbstractPage implements Serializable {
         return directory == null ? "" : directory;
     }
     
+    /**
+     * @return the confluence version of the content or 0 if it isn't known
+     */
+    public int getVersion() {
+        return 0;
+    }
+    
     public String getPath() {
         return getDirectory() + createFileName();
     }
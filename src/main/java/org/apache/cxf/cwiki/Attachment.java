@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * An attachment as listed by a REST attachment search with expand=version,container.
+ * The attachments that have been downloaded are kept in the attachment manifest
+ * along with the directory they were downloaded into.
+ */
+public class Attachment implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    String id;
+    String pageId;
+    String fileName;
+    int version;
+    long size = -1;
+    String modified;
+    String downloadPath;
+    String directory;
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the id of the page or blog entry the attachment belongs to
+     */
+    public String getPageId() {
+        return pageId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getModified() {
+        return modified;
+    }
+
+    /**
+     * @return the download link, relative to the confluence root
+     */
+    public String getDownloadPath() {
+        return downloadPath;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return true if the downloaded attachment (from the manifest) is the same as this one
+     */
+    public boolean isSameVersion(Attachment downloaded) {
+        return downloaded.version == version
+            && downloaded.size == size
+            && equals(downloaded.modified, modified)
+            && equals(downloaded.fileName, fileName);
+    }
+
+    private static boolean equals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    public String toString() {
+        return "Attachment[id=" + id + ",page=" + pageId + ",fileName=" + fileName
+            + ",version=" + version + ",size=" + size + "]";
+    }
+
+    /**
+     * Reads one page of results from a REST attachment search.
+     * @return true if confluence reports more results after this page
+     */
+    public static boolean readResults(InputStream ins, List<Attachment> results) throws IOException {
+        JsonParser parser = new JsonFactory().createParser(ins);
+        boolean hasNext = false;
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken tok = parser.nextToken();
+                if ("results".equals(name) && tok == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        results.add(read(parser));
+                    }
+                } else if ("_links".equals(name) && tok == JsonToken.START_OBJECT) {
+                    hasNext = readLink(parser, "next") != null;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return hasNext;
+    }
+
+    private static Attachment read(JsonParser parser) throws IOException {
+        Attachment att = new Attachment();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken tok = parser.nextToken();
+            if ("id".equals(name)) {
+                att.id = parser.getText();
+            } else if ("title".equals(name)) {
+                att.fileName = parser.getText();
+            } else if ("version".equals(name) && tok == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String vname = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("number".equals(vname)) {
+                        att.version = parser.getIntValue();
+                    } else if ("when".equals(vname)) {
+                        att.modified = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if ("container".equals(name) && tok == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String cname = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("id".equals(cname)) {
+                        att.pageId = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if ("extensions".equals(name) && tok == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String ename = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("fileSize".equals(ename)) {
+                        att.size = parser.getLongValue();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if ("_links".equals(name) && tok == JsonToken.START_OBJECT) {
+                att.downloadPath = readLink(parser, "download");
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return att;
+    }
+
+    private static String readLink(JsonParser parser, String rel) throws IOException {
+        String link = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String lname = parser.getCurrentName();
+            parser.nextToken();
+            if (rel.equals(lname)) {
+                link = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return link;
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores every downloaded binary once, keyed by the SHA-256 of its content.  The
+ * files in the .data, .thumbs and .userimage directories are hard links to the
+ * blobs (or copies if the file system can't link), so the same image attached to
+ * several pages or used by both spaces takes up the space of one file.
+ *
+ * The store also remembers which blob a download URL produced.  URLs that pin a
+ * version of the file are then materialized from the store instead of being
+ * downloaded again.  For the other URLs the ETag and Last-Modified of the download
+ * are kept so the blob can be revalidated with a conditional request.
+ *
+ * Blobs are never deleted, not even once no file in the output links to them any
+ * more.  Deleting the whole store is safe, the files are downloaded again.
+ */
+public class BlobStore {
+
+    static final String INDEX_FILE = "index.properties";
+
+    private final File root;
+    private final Map<String, String> index = new ConcurrentHashMap<String, String>();
+    private final Map<String, Downloader.Validators> validators
+        = new ConcurrentHashMap<String, Downloader.Validators>();
+    private volatile boolean linksSupported = true;
+
+    public BlobStore(File root) {
+        this.root = root;
+        File file = new File(root, INDEX_FILE);
+        if (file.exists()) {
+            Properties props = new Properties();
+            try {
+                InputStream ins = new FileInputStream(file);
+                try {
+                    props.load(ins);
+                } finally {
+                    ins.close();
+                }
+                for (String key : props.stringPropertyNames()) {
+                    //hash [lastModified [etag]]
+                    String[] entry = props.getProperty(key).split(" ", 3);
+                    index.put(key, entry[0]);
+                    if (entry.length > 1) {
+                        validators.put(key, new Downloader.Validators(entry.length > 2 ? entry[2] : null,
+                                                                      Long.parseLong(entry[1])));
+                    }
+                }
+            } catch (IOException e) {
+                //invalid index, the files are just downloaded again
+                index.clear();
+                validators.clear();
+            } catch (NumberFormatException e) {
+                index.clear();
+                validators.clear();
+            }
+        }
+    }
+
+    /**
+     * Only URLs that name a specific version of the file can be served from the store,
+     * anything else might have changed since it was downloaded.
+     */
+    static boolean isVersioned(String href) {
+        return href.contains("version=") || href.contains("modificationDate=");
+    }
+
+    /**
+     * Materializes the blob previously downloaded from the URL at target.
+     * @return false if the URL is not in the store, the file needs to be downloaded
+     */
+    public boolean link(String href, File target) throws IOException {
+        String hash = isVersioned(href) ? index.get(href) : null;
+        if (hash == null) {
+            return false;
+        }
+        File blob = getBlob(hash);
+        if (!blob.exists()) {
+            index.remove(href);
+            return false;
+        }
+        replace(target, blob);
+        return true;
+    }
+
+    /**
+     * @return the hash of the blob downloaded from the URL or null if it isn't in the store
+     */
+    public String getHash(String href) {
+        String hash = index.get(href);
+        return hash != null && getBlob(hash).exists() ? hash : null;
+    }
+
+    /**
+     * @return the validators to revalidate the blob downloaded from the URL with or null
+     */
+    public Downloader.Validators getValidators(String href) {
+        Downloader.Validators v = validators.get(href);
+        return v == null || getHash(href) == null ? null : new Downloader.Validators(v.etag, v.lastModified);
+    }
+
+    /**
+     * Materializes a blob that is known to be in the store at target.
+     */
+    public void linkBlob(String hash, File target) throws IOException {
+        replace(target, getBlob(hash));
+    }
+
+    /**
+     * Moves a freshly downloaded file into the store, replacing it with a link to the blob.
+     */
+    public String store(String href, File file) throws IOException {
+        return store(href, file, null);
+    }
+
+    /**
+     * Moves a freshly downloaded file into the store, replacing it with a link to the blob.
+     * The validators allow revalidating the blob even though the URL isn't versioned.
+     * @return the hash of the file
+     */
+    public String store(String href, File file, Downloader.Validators v) throws IOException {
+        String hash = hash(file);
+        File blob = getBlob(hash);
+        if (blob.exists()) {
+            replace(file, blob);
+        } else {
+            blob.getParentFile().mkdirs();
+            if (!createLink(blob, file)) {
+                Files.copy(file.toPath(), blob.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (isVersioned(href)) {
+            index.put(href, hash);
+        } else if (v != null && !v.isEmpty()) {
+            index.put(href, hash);
+            validators.put(href, new Downloader.Validators(v.etag, v.lastModified));
+        }
+        return hash;
+    }
+
+    /**
+     * Copies a file that may already be in the store, linking the copy to the same blob.
+     */
+    public void copy(File source, File target) throws IOException {
+        String hash = hash(source);
+        File blob = getBlob(hash);
+        replace(target, blob.exists() ? blob : source);
+    }
+
+    public synchronized void save() throws IOException {
+        Properties props = new Properties();
+        for (Map.Entry<String, String> ent : index.entrySet()) {
+            Downloader.Validators v = validators.get(ent.getKey());
+            if (v == null) {
+                props.setProperty(ent.getKey(), ent.getValue());
+            } else {
+                props.setProperty(ent.getKey(), ent.getValue() + " " + v.lastModified
+                                  + (v.etag == null ? "" : " " + v.etag));
+            }
+        }
+        root.mkdirs();
+        OutputStream out = new FileOutputStream(new File(root, INDEX_FILE));
+        try {
+            props.store(out, "Download URL to content hash");
+        } finally {
+            out.close();
+        }
+    }
+
+    File getBlob(String hash) {
+        return new File(new File(root, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * Points target at the blob.  The link is created next to the target and moved over
+     * it so a reader never sees a partial file.
+     */
+    private void replace(File target, File blob) throws IOException {
+        if (target.exists() && Files.isSameFile(target.toPath(), blob.toPath())) {
+            return;
+        }
+        File tmp = new File(target.getPath() + ".link");
+        Files.deleteIfExists(tmp.toPath());
+        if (!createLink(tmp, blob)) {
+            Files.copy(blob.toPath(), tmp.toPath());
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private boolean createLink(File link, File existing) {
+        if (!linksSupported) {
+            return false;
+        }
+        try {
+            Files.createLink(link.toPath(), existing.toPath());
+            return true;
+        } catch (UnsupportedOperationException e) {
+            linksSupported = false;
+        } catch (IOException e) {
+            //different file system or some such, fall back to copying
+        }
+        return false;
+    }
+
+    static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream ins = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            int n = ins.read(buf);
+            while (n != -1) {
+                digest.update(buf, 0, n);
+                n = ins.read(buf);
+            }
+        } finally {
+            ins.close();
+        }
+        StringBuilder b = new StringBuilder();
+        for (byte by : digest.digest()) {
+            b.append(Character.forDigit((by >> 4) & 0xf, 16)).append(Character.forDigit(by & 0xf, 16));
+        }
+        return b.toString();
+    }
+}
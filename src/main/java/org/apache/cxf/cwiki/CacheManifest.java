@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * The paths of the fingerprinted files along with the Cache-Control the web server
+ * or the front-end cache should send for them.  A fingerprinted file never changes,
+ * a new version of the attachment gets a new name, so it can be cached for good.
+ *
+ * The manifest is a JSON object mapping each path, relative to the root output
+ * directory, to its headers.  Paths from earlier runs, and the fingerprinted copies
+ * they point to, are kept on purpose and never pruned: the pages that weren't
+ * rendered again still link to them, and so do the copies of rendered pages that
+ * browsers and front-end caches hold on to.  Finding the copies no page links any
+ * more would mean parsing every page of the output on every run.
+ */
+public class CacheManifest {
+
+    static final String FILE_NAME = "cache-manifest.json";
+    static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private final File file;
+    private final Map<String, String> paths = new ConcurrentSkipListMap<String, String>();
+
+    public CacheManifest(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            InputStream ins = new FileInputStream(file);
+            try {
+                read(ins);
+            } finally {
+                ins.close();
+            }
+        }
+    }
+
+    public boolean exists() {
+        return file.exists();
+    }
+
+    public void addImmutable(String path) {
+        paths.put(path, IMMUTABLE);
+    }
+
+    public String getCacheControl(String path) {
+        return paths.get(path);
+    }
+
+    private void read(InputStream ins) throws IOException {
+        JsonParser parser = new JsonFactory().createParser(ins);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String path = parser.getCurrentName();
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String header = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("Cache-Control".equals(header)) {
+                        paths.put(path, parser.getText());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        } finally {
+            parser.close();
+        }
+    }
+
+    public void save() throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        JsonGenerator gen = new JsonFactory().createGenerator(out, JsonEncoding.UTF8);
+        try {
+            gen.useDefaultPrettyPrinter();
+            gen.writeStartObject();
+            for (Map.Entry<String, String> ent : paths.entrySet()) {
+                gen.writeObjectFieldStart(ent.getKey());
+                gen.writeStringField("Cache-Control", ent.getValue());
+                gen.writeEndObject();
+            }
+            gen.writeEndObject();
+        } finally {
+            gen.close();
+            out.close();
+        }
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.apache.cxf.cwiki;
 
+import java.awt.Dimension;
 import java.io.File;
 import java.io.Writer;
 import java.net.MalformedURLException;
@@ -37,12 +38,16 @@ import org.ccil.cowan.tagsoup.XMLWriter;
  */
 public class ConfluenceCleanupWriter extends XMLWriter {
 
+    //the images near the top of a page that are loaded right away
+    static final int EAGER_IMAGES = 2;
+
     private final AbstractPage page;
     private final SiteExporter exporter;
     private final String divId;
     private final String divCls;
     private final Stack<Integer> trStack = new Stack<Integer>(); 
     private int curTrCount;
+    private int imageCount;
 
     public ConfluenceCleanupWriter(SiteExporter exp, Writer writer, AbstractPage page, 
                                    String id, String divCls) {
@@ -63,73 +68,38 @@ public class ConfluenceCleanupWriter extends XMLWriter {
     }
     
     private String findPageWithURL(String url) throws Exception {
-        String location = findPageWithURL(exporter, url);
-        if (location == null) {
-            for (SiteExporter siteExporter : SiteExporter.siteExporters) {
-                if (exporter == siteExporter) {
-                    continue;
-                }
-                location = findPageWithURL(siteExporter, url);
-                if (location != null) {
-                    break;
-                }
+        SiteExporter siteExporter = SiteExporter.pageIndex.findSpace(url);
+        String path = "index.html";
+        if (siteExporter == null) {
+            PageIndex.Entry entry = SiteExporter.pageIndex.findByURL(url);
+            if (entry == null) {
+                return null;
             }
+            siteExporter = entry.getExporter();
+            path = entry.getPage().getPath();
         }
-        return location;
-    }
-    
-    private String findPageWithURL(SiteExporter siteExporter, String url) throws Exception {
-        if (siteExporter.getSpace().getURL().endsWith(url)) {
-            String prefix = getRelativePath(SiteExporter.rootOutputDir, getPageDirectory(), siteExporter.outputDir);
-            String location = prefix + "index.html";
-            if (exporter != siteExporter) {
-                System.out.println("Cross space link to " + location);
-            }
-            return location;
-        } else {
-            AbstractPage p = siteExporter.findPageByURL(url);
-            if (p == null) {
-                p = siteExporter.findBlogEntryByURL(url);
-            }
-            if (p != null) {
-                String prefix = getRelativePath(SiteExporter.rootOutputDir, getPageDirectory(), siteExporter.outputDir);
-                String location = prefix + p.getPath();
-                if (exporter != siteExporter) {
-                    System.out.println("Cross space link to " + location);
-                }
-                return location;
-            }
+        String prefix = getRelativePath(SiteExporter.rootOutputDir, getPageDirectory(),
+                                        siteExporter.outputDir);
+        String location = prefix + path;
+        if (exporter != siteExporter) {
+            System.out.println("Cross space link to " + location);
         }
-        return null;
+        return location;
     }
     
     private String findPageByID(String id) throws Exception {
-        String location = findPageByID(exporter, id);        
-        if (location == null) {
-            for (SiteExporter siteExporter : SiteExporter.siteExporters) {
-                if (exporter == siteExporter) {
-                    continue;
-                }
-                location = findPageByID(siteExporter, id);
-                if (location != null) {
-                    break;
-                }
-            }
+        PageIndex.Entry entry = SiteExporter.pageIndex.findById(id);
+        if (entry == null) {
+            return null;
         }
-        return location;
-    }
-    
-    private String findPageByID(SiteExporter siteExporter, String url) throws Exception {
-        AbstractPage p = siteExporter.findPageByID(url);
-        if (p != null) {
-            String prefix = getRelativePath(SiteExporter.rootOutputDir, getPageDirectory(), siteExporter.outputDir);
-            String location = prefix + p.getPath();
-            if (exporter != siteExporter) {
-                System.out.println("Cross space link (via id) to " + location);
-            }
-            return location;
+        SiteExporter siteExporter = entry.getExporter();
+        String prefix = getRelativePath(SiteExporter.rootOutputDir, getPageDirectory(),
+                                        siteExporter.outputDir);
+        String location = prefix + entry.getPage().getPath();
+        if (exporter != siteExporter) {
+            System.out.println("Cross space link (via id) to " + location);
         }
-        return null;
+        return location;
     }
     
     //CHECKSTYLE:OFF
@@ -195,11 +165,11 @@ public class ConfluenceCleanupWriter extends XMLWriter {
                     throw new SAXException(e);
                 }
             } else if (href != null && href.contains("/confluence/download/attachments")) {
-                href = href.substring(href.lastIndexOf("/"));
+                href = href.substring(href.lastIndexOf("/") + 1);
                 String dirName = page.createFileName();
                 dirName = dirName.substring(0, dirName.lastIndexOf(".")) + ".data";
 
-                newAtts.addMapping("href", dirName + href);
+                newAtts.addMapping("href", dirName + "/" + exporter.fingerprint(page, dirName, href));
             } else if (href != null && href.contains("/confluence/pages/createpage.action")) {
                 System.out.println("Adding createpage link for " + href + " from " + page.getTitle());
                 newAtts.addMapping("href", SiteExporter.HOST + href);
@@ -223,6 +193,7 @@ public class ConfluenceCleanupWriter extends XMLWriter {
         } else if ("img".equals(localName.toLowerCase())
             || "img".equals(qName.toLowerCase())) {
             String href = exporter.stripHost(atts.getValue("src"));
+            imageCount++;
             if ("absmiddle".equalsIgnoreCase(atts.getValue("align"))) {
                 newAtts.addMapping("align", "middle");
             }
@@ -232,11 +203,13 @@ public class ConfluenceCleanupWriter extends XMLWriter {
             } else if (href != null && href.startsWith("/confluence/download/attachments")) {
                 if (cls == null || cls.contains("confluence-embedded-image")) {
                     href = href.substring(0, href.lastIndexOf('?'));
-                    href = href.substring(href.lastIndexOf('/'));
+                    href = href.substring(href.lastIndexOf('/') + 1);
                     String dirName = page.createFileName();
                     dirName = dirName.substring(0, dirName.lastIndexOf(".")) + ".data";
 
-                    newAtts.addMapping("src", dirName + href.replaceAll("\\+", "-"));
+                    String name = exporter.fingerprint(page, dirName, href.replaceAll("\\+", "-"));
+                    newAtts.addMapping("src", dirName + "/" + name);
+                    addImageAttributes(newAtts, dirName, name);
                 } else if (cls.contains("userLogo")) {
                     String name = href;
                     try {
@@ -246,9 +219,11 @@ public class ConfluenceCleanupWriter extends XMLWriter {
                                            + " linked from " + page.getTitle());                    
                     }
                     String dirName = page.createFileName();
-                    dirName = dirName.substring(0, dirName.lastIndexOf(".")) + ".userimage/";
+                    dirName = dirName.substring(0, dirName.lastIndexOf(".")) + ".userimage";
 
-                    newAtts.addMapping("src", dirName + name);                    
+                    name = exporter.fingerprint(page, dirName, name);
+                    newAtts.addMapping("src", dirName + "/" + name);
+                    addImageAttributes(newAtts, dirName, name);
                 } else {
                     newAtts.addMapping("src", SiteExporter.HOST + href.replaceAll("\\+", "-"));
                 }
@@ -261,9 +236,11 @@ public class ConfluenceCleanupWriter extends XMLWriter {
                                        + " linked from " + page.getTitle());                    
                 }
                 String dirName = page.createFileName();
-                dirName = dirName.substring(0, dirName.lastIndexOf(".")) + ".thumbs/";
+                dirName = dirName.substring(0, dirName.lastIndexOf(".")) + ".thumbs";
 
-                newAtts.addMapping("src", dirName + name);
+                name = exporter.fingerprint(page, dirName, name);
+                newAtts.addMapping("src", dirName + "/" + name);
+                addImageAttributes(newAtts, dirName, name);
             } else if (href != null && href.startsWith("/confluence")) {
                 newAtts.addMapping("src", SiteExporter.HOST + href);
             }
@@ -316,6 +293,53 @@ public class ConfluenceCleanupWriter extends XMLWriter {
     
     
     
+    /**
+     * Adds the missing width and/or height of a local image so the browser can lay out
+     * the page before the image is loaded.  All but the first few images of a page are
+     * likely below the fold and are loaded lazily.
+     */
+    private void addImageAttributes(AttributesWrapper newAtts, String dirName, String name) {
+        Dimension size = exporter.getImageSize(new File(new File(getPageDirectory(), dirName), name));
+        int width = parseDimension(newAtts.getValue("width"));
+        int height = parseDimension(newAtts.getValue("height"));
+        if (size != null && size.width > 0 && size.height > 0) {
+            if (width == -1 && height == -1) {
+                newAtts.addMapping("width", Integer.toString(size.width));
+                newAtts.addMapping("height", Integer.toString(size.height));
+            } else if (height == -1 && newAtts.getValue("height") == null) {
+                long h = Math.round((double)width * size.height / size.width);
+                newAtts.addMapping("height", Long.toString(h));
+            } else if (width == -1 && newAtts.getValue("width") == null) {
+                long w = Math.round((double)height * size.width / size.height);
+                newAtts.addMapping("width", Long.toString(w));
+            }
+        }
+        if (imageCount > EAGER_IMAGES && newAtts.getValue("loading") == null) {
+            newAtts.addMapping("loading", "lazy");
+        }
+        if (newAtts.getValue("decoding") == null) {
+            newAtts.addMapping("decoding", "async");
+        }
+    }
+    
+    /**
+     * @return the size in pixels or -1 if missing or not in pixels (percentages)
+     */
+    private static int parseDimension(String value) {
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        if (value.endsWith("px")) {
+            value = value.substring(0, value.length() - 2);
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if ("tr".equals(localName.toLowerCase())
             || "tr".equals(qName.toLowerCase())) {
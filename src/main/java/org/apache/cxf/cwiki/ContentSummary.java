@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * The metadata of a page or blog post as returned by the REST /content resources
+ * with expand=version,ancestors.  Does not contain any of the page content.
+ */
+public class ContentSummary {
+
+    // top level pages come back from the SOAP API with a parentId of 0
+    static final String NO_PARENT = "0";
+
+    String id;
+    String type;
+    String title;
+    String modified;
+    String parentId = NO_PARENT;
+    int version;
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getModified() {
+        return modified;
+    }
+
+    public String getParentId() {
+        return parentId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public boolean isPage() {
+        return "page".equals(type);
+    }
+
+    public boolean isBlogPost() {
+        return "blogpost".equals(type);
+    }
+
+    /**
+     * @return true if the cached page is still the same version as this summary
+     */
+    public boolean isSameVersion(Page page) {
+        return page.getVersion() != 0
+            && page.getVersion() == version
+            && page.getTitle().equals(title)
+            && parentId.equals(page.getParentId());
+    }
+
+    public String toString() {
+        return "ContentSummary[id=" + id + ",type=" + type + ",title=" + title
+            + ",version=" + version + ",parent=" + parentId + "]";
+    }
+
+    /**
+     * Reads one page of results from a REST content listing.
+     * @return true if confluence reports more results after this page
+     */
+    public static boolean readResults(InputStream ins, List<ContentSummary> results) throws IOException {
+        JsonParser parser = new JsonFactory().createParser(ins);
+        boolean hasNext = false;
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken tok = parser.nextToken();
+                if ("results".equals(name) && tok == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        results.add(read(parser));
+                    }
+                } else if ("_links".equals(name) && tok == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        if ("next".equals(parser.getCurrentName())) {
+                            hasNext = true;
+                        }
+                        parser.nextToken();
+                        parser.skipChildren();
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return hasNext;
+    }
+
+    private static ContentSummary read(JsonParser parser) throws IOException {
+        ContentSummary summary = new ContentSummary();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken tok = parser.nextToken();
+            if ("id".equals(name)) {
+                summary.id = parser.getText();
+            } else if ("type".equals(name)) {
+                summary.type = parser.getText();
+            } else if ("title".equals(name)) {
+                summary.title = parser.getText();
+            } else if ("version".equals(name) && tok == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String vname = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("number".equals(vname)) {
+                        summary.version = parser.getIntValue();
+                    } else if ("when".equals(vname)) {
+                        summary.modified = parser.getText();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if ("ancestors".equals(name) && tok == JsonToken.START_ARRAY) {
+                //ancestors are ordered from the root, the last one is the direct parent
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String aname = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("id".equals(aname)) {
+                            summary.parentId = parser.getText();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The pages that have to be rendered again when another page changes: the pages that
+ * include it ({include}), the pages that list it as a child or descendant ({children})
+ * and the pages that list the blog ({blog-posts}).  The edges point from the title of the
+ * page that is used to the ids of the pages using it, so finding the pages to render
+ * again is a lookup per changed page rather than a scan over all the pages.
+ *
+ * The graph is built from the includes, childrenOf and hasBlog of the pages, which are
+ * saved in the page cache, so it is restored along with the cache.
+ */
+public class DependencyGraph {
+
+    private final ConcurrentHashMap<String, Set<String>> includedBy
+        = new ConcurrentHashMap<String, Set<String>>();
+    //title to the ids of the pages listing its children, with the depth they are listed to
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>> childrenListedBy
+        = new ConcurrentHashMap<String, ConcurrentHashMap<String, Integer>>();
+    private final Set<String> blogListedBy = newSet();
+
+    public void add(Page page) {
+        if (page.includes != null) {
+            for (String title : page.includes) {
+                Set<String> ids = includedBy.get(title);
+                if (ids == null) {
+                    ids = newSet();
+                    Set<String> old = includedBy.putIfAbsent(title, ids);
+                    if (old != null) {
+                        ids = old;
+                    }
+                }
+                ids.add(page.getId());
+            }
+        }
+        if (page.childrenOf != null) {
+            for (Map.Entry<String, Integer> ent : page.childrenOf.entrySet()) {
+                if (ent.getKey() == null) {
+                    continue;
+                }
+                ConcurrentHashMap<String, Integer> ids = childrenListedBy.get(ent.getKey());
+                if (ids == null) {
+                    ids = new ConcurrentHashMap<String, Integer>();
+                    ConcurrentHashMap<String, Integer> old = childrenListedBy.putIfAbsent(ent.getKey(), ids);
+                    if (old != null) {
+                        ids = old;
+                    }
+                }
+                ids.put(page.getId(), ent.getValue());
+            }
+        }
+        if (page.hasBlog) {
+            blogListedBy.add(page.getId());
+        }
+    }
+
+    /**
+     * Removes the edges of a page that was deleted or replaced by a newer version.
+     */
+    public void remove(Page page) {
+        if (page.includes != null) {
+            for (String title : page.includes) {
+                Set<String> ids = includedBy.get(title);
+                if (ids != null) {
+                    ids.remove(page.getId());
+                }
+            }
+        }
+        if (page.childrenOf != null) {
+            for (String title : page.childrenOf.keySet()) {
+                Map<String, Integer> ids = title == null ? null : childrenListedBy.get(title);
+                if (ids != null) {
+                    ids.remove(page.getId());
+                }
+            }
+        }
+        blogListedBy.remove(page.getId());
+    }
+
+    public void clear() {
+        includedBy.clear();
+        childrenListedBy.clear();
+        blogListedBy.clear();
+    }
+
+    /**
+     * @return the ids of the pages including the page with the title
+     */
+    public Collection<String> getIncludedBy(String title) {
+        Set<String> ids = title == null ? null : includedBy.get(title);
+        return ids == null ? Collections.<String>emptySet() : ids;
+    }
+
+    /**
+     * @param depth 1 for the children of the page, 2 for the grandchildren and so on
+     * @return the ids of the pages listing the descendants of the page with the title
+     *         at least to the depth
+     */
+    public Collection<String> getChildrenListedBy(String title, int depth) {
+        Map<String, Integer> ids = title == null ? null : childrenListedBy.get(title);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<String> listing = new ArrayList<String>();
+        for (Map.Entry<String, Integer> ent : ids.entrySet()) {
+            if (depth <= ent.getValue()) {
+                listing.add(ent.getKey());
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * @return the ids of the pages listing the blog posts
+     */
+    public Collection<String> getBlogListedBy() {
+        return blogListedBy;
+    }
+
+    private static Set<String> newSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+}
@@ -0,0 +1,352 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads binary files (attachments, thumbnails, user images) either on the
+ * calling thread or in the background on a bounded pool so they can overlap with
+ * rendering.  The number of concurrent downloads from a single host is limited,
+ * a download only holds its slot while it transfers, not while it waits to be
+ * retried.  The body is written with FileChannel.transferFrom rather than copied
+ * through a byte[] buffer.
+ *
+ * Files are downloaded into a .part file that is only moved into place once it
+ * is complete and matches the expected size.  An interrupted download is resumed
+ * with a Range request, guarded by If-Range so a file that changed in the meantime
+ * is downloaded from the start.  Downloads that still fail after the retries of
+ * the RetryPolicy are kept in a queue to be tried once more later in the run, the
+ * .part files of the ones that fail again are deleted at the end of the run.
+ *
+ * Files that can change without their URL changing (user images) can be
+ * revalidated against the ETag and Last-Modified of an earlier download.
+ */
+public class Downloader {
+
+    static final long CHUNK_SIZE = 1024 * 1024;
+    static final int PROGRESS_INTERVAL = 25;
+
+    private final RetryPolicy retryPolicy;
+    private final ExecutorService executor;
+    private final int maxPerHost;
+    private final ConcurrentHashMap<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final ConcurrentHashMap<File, Request> failedRequests = new ConcurrentHashMap<File, Request>();
+
+    public Downloader(RetryPolicy retryPolicy, int threads, int maxPerHost) {
+        this.retryPolicy = retryPolicy;
+        this.executor = SiteExporter.newDaemonPool(Math.max(1, threads));
+        this.maxPerHost = Math.max(1, maxPerHost);
+    }
+
+    /**
+     * Queues the download, the returned future gives the number of bytes written.
+     * @param authHeader the Authorization header to send or null
+     * @param expectedSize the size the file should have or -1 if unknown
+     */
+    public Future<Long> submit(final String operation, final String href, final String authHeader,
+                               final File file, final long expectedSize) {
+        queued.incrementAndGet();
+        return executor.submit(new Callable<Long>() {
+            public Long call() throws Exception {
+                try {
+                    return download(operation, href, authHeader, file, expectedSize);
+                } finally {
+                    queued.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Downloads on the calling thread.
+     * @return the number of bytes written
+     */
+    public long download(String operation, String href, String authHeader,
+                         File file, long expectedSize) throws Exception {
+        return download(operation, href, authHeader, file, expectedSize, null);
+    }
+
+    /**
+     * Downloads on the calling thread unless the file is unchanged since the earlier
+     * download described by validators.  The validators are updated from the response.
+     * @param validators the validators of the earlier download or null
+     * @return the number of bytes written, 0 if the file was not modified
+     */
+    public long download(final String operation, final String href, final String authHeader,
+                         final File file, final long expectedSize,
+                         final Validators validators) throws Exception {
+        final Semaphore host = getHost(new URL(href).getHost());
+        boolean success = false;
+        try {
+            long size = retryPolicy.execute("download", operation, new Callable<Long>() {
+                public Long call() throws Exception {
+                    host.acquire();
+                    try {
+                        return transfer(href, authHeader, file, expectedSize, validators);
+                    } finally {
+                        host.release();
+                    }
+                }
+            });
+            success = true;
+            failedRequests.remove(file);
+            bytes.addAndGet(size);
+            return size;
+        } finally {
+            if (!success) {
+                failed.incrementAndGet();
+                failedRequests.put(file, new Request(operation, href, authHeader, file, expectedSize));
+            }
+            int done = completed.incrementAndGet();
+            if (done % PROGRESS_INTERVAL == 0) {
+                printProgress();
+            }
+        }
+    }
+
+    /**
+     * Tries a download that failed earlier in the run once more.
+     * @return true if the file has been downloaded
+     */
+    public boolean retry(File file) {
+        Request req = failedRequests.remove(file);
+        if (req == null) {
+            return false;
+        }
+        try {
+            download(req.operation, req.href, req.authHeader, req.file, req.expectedSize);
+            return true;
+        } catch (Exception e) {
+            System.out.println("Could not download " + req.href + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the .part files of the downloads that are still failing, so they don't sit
+     * in the svn working copy.  The next run downloads those files from the start.
+     * @return the number of files deleted
+     */
+    public int deleteFailedParts() {
+        int deleted = 0;
+        for (File file : failedRequests.keySet()) {
+            if (new File(file.getPath() + ".part").delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private long transfer(String href, String authHeader, File file, long expectedSize,
+                          Validators validators) throws Exception {
+        File part = new File(file.getPath() + ".part");
+        long offset = part.length();
+        if (expectedSize >= 0 && offset > expectedSize) {
+            offset = 0;
+        }
+        HttpURLConnection con = HttpTransport.openConnection(href);
+        if (authHeader != null) {
+            con.addRequestProperty("Authorization", authHeader);
+        }
+        if (validators != null) {
+            validators.notModified = false;
+            if (validators.etag != null) {
+                con.setRequestProperty("If-None-Match", validators.etag);
+            }
+            if (validators.lastModified > 0) {
+                con.setRequestProperty("If-Modified-Since", formatDate(validators.lastModified));
+            }
+        }
+        if (offset > 0) {
+            con.setRequestProperty("Range", "bytes=" + offset + "-");
+            //the part file carries the Last-Modified of the response it came from
+            con.setRequestProperty("If-Range", formatDate(part.lastModified()));
+        }
+        int status = con.getResponseCode();
+        if (status == 304 && validators != null) {
+            HttpTransport.drain(con);
+            Files.deleteIfExists(part.toPath());
+            validators.notModified = true;
+            return 0;
+        } else if (status == 416 && offset == expectedSize) {
+            //the part file was complete, it just wasn't moved into place
+            HttpTransport.drain(con);
+            return complete(part, file, offset, expectedSize);
+        } else if (status == 416) {
+            HttpTransport.drain(con);
+            Files.deleteIfExists(part.toPath());
+            throw new IOException("Could not resume " + href + ", starting over");
+        } else if (status >= 300) {
+            HttpTransport.drain(con);
+            throw new HttpStatusException(status, con.getHeaderField("Retry-After"), href);
+        }
+        if (status != 206) {
+            //full response, the server ignored the range or the file changed
+            offset = 0;
+        }
+        long length = con.getContentLengthLong();
+        long lastModified = con.getLastModified();
+        if (validators != null) {
+            validators.etag = con.getHeaderField("ETag");
+            validators.lastModified = lastModified;
+        }
+        InputStream ins = con.getInputStream();
+        ReadableByteChannel in = Channels.newChannel(ins);
+        RandomAccessFile raf = new RandomAccessFile(part, "rw");
+        long pos = offset;
+        try {
+            FileChannel out = raf.getChannel();
+            out.truncate(offset);
+            long n = out.transferFrom(in, pos, CHUNK_SIZE);
+            while (n > 0) {
+                pos += n;
+                n = out.transferFrom(in, pos, CHUNK_SIZE);
+            }
+        } finally {
+            raf.close();
+            in.close();
+            if (lastModified > 0) {
+                part.setLastModified(lastModified);
+            }
+        }
+        if (length >= 0 && pos - offset != length) {
+            //keep the part file, the next attempt resumes from here
+            throw new IOException("Download of " + href + " ended after " + (pos - offset)
+                                  + " of " + length + " bytes");
+        }
+        return complete(part, file, pos, expectedSize);
+    }
+
+    private long complete(File part, File file, long size, long expectedSize) throws IOException {
+        if (expectedSize >= 0 && size != expectedSize) {
+            Files.deleteIfExists(part.toPath());
+            throw new IOException("Downloaded " + size + " bytes for " + file.getName() 
+                                  + " but expected " + expectedSize);
+        }
+        Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return size;
+    }
+
+    static String formatDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+    private Semaphore getHost(String name) {
+        Semaphore host = hosts.get(name);
+        if (host == null) {
+            host = new Semaphore(maxPerHost);
+            Semaphore old = hosts.putIfAbsent(name, host);
+            if (old != null) {
+                host = old;
+            }
+        }
+        return host;
+    }
+
+    public void printProgress() {
+        System.out.println("Downloaded " + completed.get() + " files (" + failed.get() + " failed, "
+                           + (bytes.get() / 1024) + " KB), " + queued.get() + " still queued");
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * The ETag and Last-Modified of a downloaded file.
+     */
+    public static final class Validators {
+        String etag;
+        long lastModified;
+        boolean notModified;
+
+        public Validators() {
+        }
+
+        public Validators(String etag, long lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isEmpty() {
+            return etag == null && lastModified <= 0;
+        }
+
+        /**
+         * @return true if the last request was answered with 304 Not Modified
+         */
+        public boolean isNotModified() {
+            return notModified;
+        }
+    }
+
+    static final class Request {
+        final String operation;
+        final String href;
+        final String authHeader;
+        final File file;
+        final long expectedSize;
+
+        Request(String operation, String href, String authHeader, File file, long expectedSize) {
+            this.operation = operation;
+            this.href = href;
+            this.authHeader = authHeader;
+            this.file = file;
+            this.expectedSize = expectedSize;
+        }
+    }
+}
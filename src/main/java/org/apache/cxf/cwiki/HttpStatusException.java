@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.IOException;
+
+/**
+ * A non successful HTTP response from confluence along with the value of
+ * the Retry-After header, if any.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+    final String retryAfter;
+
+    public HttpStatusException(int status, String retryAfter, String message) {
+        super("HTTP " + status + ": " + message);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    public HttpStatusException(int status, String retryAfter, Throwable cause) {
+        super("HTTP " + status, cause);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getRetryAfter() {
+        return retryAfter;
+    }
+}
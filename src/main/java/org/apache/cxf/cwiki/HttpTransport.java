@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.apache.cxf.configuration.jsse.TLSClientParameters;
+import org.apache.cxf.helpers.CastUtils;
+import org.apache.cxf.helpers.IOUtils;
+import org.apache.cxf.interceptor.AttachmentInInterceptor;
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.interceptor.InterceptorProvider;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.transport.http.HTTPConduit;
+import org.apache.cxf.transports.http.configuration.ConnectionType;
+import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
+
+/**
+ * The HTTP settings shared by the SOAP dispatch, the REST client and the binary
+ * downloads.  All three go through HttpURLConnection, so they share the JDK
+ * keep-alive connection cache.  They also use a single SSLSocketFactory so TLS
+ * sessions are resumed instead of renegotiated on every new connection.
+ *
+ * The keep-alive cache only bounds the idle connections, not the ones in use.  The
+ * SOAP and REST calls all go to the confluence host and are bounded by the
+ * RequestLimiter, the downloads by the per host limit of the Downloader.
+ *
+ * If compression is turned on, the SOAP and REST responses are requested gzip
+ * or deflate encoded and are decompressed while the parsers read them.
+ */
+public final class HttpTransport {
+
+    static final int CONNECTION_TIMEOUT = 30 * 1000;
+    //CAMEL has a couple of HUGE HUGE pages that take a long time to render
+    static final int RECEIVE_TIMEOUT = 5 * 60 * 1000;
+    static final int SESSION_TIMEOUT = 60 * 60;
+
+    private static SSLSocketFactory socketFactory;
+    private static boolean compression;
+
+    private HttpTransport() {
+        //utility class
+    }
+
+    /**
+     * Needs to be called before the first connection is opened as the JDK reads
+     * these properties once.
+     * @param maxConnections the number of idle keep-alive connections kept per host, this
+     *        does not limit the number of connections in use
+     * @param compress whether to ask for compressed SOAP and REST responses
+     */
+    public static void init(int maxConnections, boolean compress) {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(maxConnections));
+        compression = compress;
+    }
+
+    static synchronized SSLSocketFactory getSSLSocketFactory() throws IOException {
+        if (socketFactory == null) {
+            try {
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, null, null);
+                context.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT);
+                socketFactory = context.getSocketFactory();
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+        return socketFactory;
+    }
+
+    public static void configure(HTTPConduit conduit, InterceptorProvider client) throws IOException {
+        HTTPClientPolicy clientPol = conduit.getClient();
+        if (clientPol == null) {
+            clientPol = new HTTPClientPolicy();
+        }
+        clientPol.setConnection(ConnectionType.KEEP_ALIVE);
+        clientPol.setConnectionTimeout(CONNECTION_TIMEOUT);
+        clientPol.setReceiveTimeout(RECEIVE_TIMEOUT);
+        if (compression) {
+            clientPol.setAcceptEncoding("gzip, deflate");
+            client.getInInterceptors().add(new DecompressingInInterceptor());
+        }
+        conduit.setClient(clientPol);
+
+        TLSClientParameters tls = conduit.getTlsClientParameters();
+        if (tls == null) {
+            tls = new TLSClientParameters();
+        }
+        tls.setSSLSocketFactory(getSSLSocketFactory());
+        conduit.setTlsClientParameters(tls);
+    }
+
+    public static HttpURLConnection openConnection(String href) throws IOException {
+        HttpURLConnection con = (HttpURLConnection)new URL(href).openConnection();
+        if (con instanceof HttpsURLConnection) {
+            ((HttpsURLConnection)con).setSSLSocketFactory(getSSLSocketFactory());
+        }
+        con.setConnectTimeout(CONNECTION_TIMEOUT);
+        con.setReadTimeout(RECEIVE_TIMEOUT);
+        return con;
+    }
+
+    /**
+     * Reads what is left of an error response so the connection can go back
+     * into the keep-alive cache.
+     */
+    public static void drain(HttpURLConnection con) {
+        InputStream ins = con.getErrorStream();
+        if (ins != null) {
+            try {
+                IOUtils.consume(ins);
+                ins.close();
+            } catch (IOException e) {
+                //ignore, the connection just won't be reused
+            }
+        }
+    }
+
+    /**
+     * "deflate" is supposed to be zlib wrapped, but some servers send the raw deflate data
+     */
+    static InputStream inflate(InputStream ins) throws IOException {
+        BufferedInputStream bin = new BufferedInputStream(ins);
+        bin.mark(2);
+        int cmf = bin.read();
+        int flg = bin.read();
+        bin.reset();
+        boolean zlib = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) + flg) % 31 == 0;
+        return new InflaterInputStream(bin, new Inflater(!zlib));
+    }
+
+    /**
+     * Wraps the response stream so it is decompressed as it is read. Unlike the
+     * CXF GZIPInInterceptor this also handles deflate.
+     */
+    static class DecompressingInInterceptor extends AbstractPhaseInterceptor<Message> {
+        DecompressingInInterceptor() {
+            super(Phase.RECEIVE);
+            addBefore(AttachmentInInterceptor.class.getName());
+        }
+
+        public void handleMessage(Message message) throws Fault {
+            Map<String, List<String>> headers
+                = CastUtils.cast((Map<?, ?>)message.get(Message.PROTOCOL_HEADERS));
+            InputStream ins = message.getContent(InputStream.class);
+            if (headers == null || ins == null) {
+                return;
+            }
+            for (Map.Entry<String, List<String>> ent : headers.entrySet()) {
+                if ("Content-Encoding".equalsIgnoreCase(ent.getKey()) && !ent.getValue().isEmpty()) {
+                    String encoding = ent.getValue().get(0).trim().toLowerCase();
+                    try {
+                        if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+                            ins = new GZIPInputStream(ins);
+                        } else if ("deflate".equals(encoding)) {
+                            ins = inflate(ins);
+                        } else {
+                            return;
+                        }
+                    } catch (IOException e) {
+                        throw new Fault(e);
+                    }
+                    message.setContent(InputStream.class, ins);
+                    headers.remove(ent.getKey());
+                    return;
+                }
+            }
+        }
+    }
+}
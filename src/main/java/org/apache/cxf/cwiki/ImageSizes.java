@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * The intrinsic size of the images in the output tree.  Only the image header is read
+ * and the result is cached per file, the same user image or thumbnail shows up on many
+ * pages.  A file that changed since it was read is read again.
+ */
+public final class ImageSizes {
+
+    private static final Map<File, Entry> SIZES = new ConcurrentHashMap<File, Entry>();
+
+    private ImageSizes() {
+        //utility class
+    }
+
+    /**
+     * @return the size of the image or null if the file doesn't exist or isn't an image
+     */
+    public static Dimension get(File file) {
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified == 0L) {
+            return null;
+        }
+        Entry entry = SIZES.get(file);
+        if (entry == null || entry.modified != modified || entry.length != length) {
+            entry = new Entry(modified, length, read(file));
+            SIZES.put(file, entry);
+        }
+        return entry.size;
+    }
+
+    private static Dimension read(File file) {
+        try {
+            ImageInputStream ins = ImageIO.createImageInputStream(file);
+            if (ins == null) {
+                return null;
+            }
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(ins);
+                if (!readers.hasNext()) {
+                    return null;
+                }
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(ins, true, true);
+                    return new Dimension(reader.getWidth(0), reader.getHeight(0));
+                } finally {
+                    reader.dispose();
+                }
+            } finally {
+                ins.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static final class Entry {
+        final long modified;
+        final long length;
+        final Dimension size;
+
+        Entry(long modified, long length, Dimension size) {
+            this.modified = modified;
+            this.length = length;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Why each page of a space ended up in the modified pages.  Only the first reason is
+ * kept, that's the one that put the page into the set.  Pages that are modified
+ * because of another page (they include it, list its parent as children or it's a
+ * global page) point at that page, so the chain of reasons leads back to the pages
+ * that actually changed in confluence.
+ *
+ * With -explain the reasons are written to a JSON report instead of rendering.
+ */
+public class Invalidations {
+
+    static final String NEW = "new";
+    static final String MODIFIED = "modified";
+    static final String FORCED = "forced";
+    static final String FORCE_ALL = "forceAll";
+    static final String GLOBAL = "global page";
+    static final String INCLUDES = "includes";
+    static final String CHILDREN = "lists children";
+    static final String BLOG = "lists blog";
+    static final String ATTACHMENT = "attachment changed";
+
+    private final ConcurrentHashMap<String, Reason> reasons = new ConcurrentHashMap<String, Reason>();
+
+    /**
+     * @param detail the title of the included page, of the ancestor whose children are
+     *        listed or of the global page or the name of the changed attachment, may be null
+     * @param cause the page that caused this one to be modified or null if the page
+     *        itself changed
+     */
+    public void record(Page page, String reason, String detail, Page cause) {
+        reasons.putIfAbsent(page.getId(), new Reason(page.getTitle(), reason, detail,
+                                                     cause == null ? null : cause.getId(),
+                                                     cause == null ? null : cause.getTitle()));
+    }
+
+    public Reason getReason(String id) {
+        return reasons.get(id);
+    }
+
+    /**
+     * @return the reasons leading from the page back to a page that changed itself,
+     *         starting with the reason of the page
+     */
+    public List<Reason> getChain(String id) {
+        List<Reason> chain = new ArrayList<Reason>();
+        Set<String> seen = new HashSet<String>();
+        Reason reason = reasons.get(id);
+        while (reason != null && seen.add(id)) {
+            chain.add(reason);
+            id = reason.causeId;
+            reason = id == null ? null : reasons.get(id);
+        }
+        return chain;
+    }
+
+    /**
+     * @return the number of the pages modified for each reason
+     */
+    public Map<String, Integer> getCounts(Collection<Page> pages) {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (Page p : pages) {
+            Reason reason = reasons.get(p.getId());
+            String key = reason == null ? "unknown" : reason.reason;
+            Integer count = counts.get(key);
+            counts.put(key, count == null ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    public void write(File file, String spaceKey, int total, Collection<Page> pages,
+                      int blogEntries) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        JsonGenerator gen = new JsonFactory().createGenerator(out, JsonEncoding.UTF8);
+        try {
+            gen.useDefaultPrettyPrinter();
+            gen.writeStartObject();
+            gen.writeStringField("space", spaceKey);
+            gen.writeNumberField("pages", total);
+            gen.writeNumberField("modifiedPages", pages.size());
+            gen.writeNumberField("modifiedBlogEntries", blogEntries);
+            gen.writeObjectFieldStart("reasons");
+            for (Map.Entry<String, Integer> ent : getCounts(pages).entrySet()) {
+                gen.writeNumberField(ent.getKey(), ent.getValue());
+            }
+            gen.writeEndObject();
+            gen.writeArrayFieldStart("modified");
+            for (Page p : pages) {
+                gen.writeStartObject();
+                gen.writeStringField("id", p.getId());
+                gen.writeStringField("title", p.getTitle());
+                gen.writeArrayFieldStart("chain");
+                for (Reason reason : getChain(p.getId())) {
+                    gen.writeStartObject();
+                    gen.writeStringField("title", reason.title);
+                    gen.writeStringField("reason", reason.reason);
+                    if (reason.detail != null) {
+                        gen.writeStringField("detail", reason.detail);
+                    }
+                    if (reason.causeId != null) {
+                        gen.writeStringField("causeId", reason.causeId);
+                        gen.writeStringField("causeTitle", reason.causeTitle);
+                    }
+                    gen.writeEndObject();
+                }
+                gen.writeEndArray();
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        } finally {
+            gen.close();
+            out.close();
+        }
+    }
+
+    public static final class Reason {
+        final String title;
+        final String reason;
+        final String detail;
+        final String causeId;
+        final String causeTitle;
+
+        Reason(String title, String reason, String detail, String causeId, String causeTitle) {
+            this.title = title;
+            this.reason = reason;
+            this.detail = detail;
+            this.causeId = causeId;
+            this.causeTitle = causeTitle;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        public String getCauseId() {
+            return causeId;
+        }
+
+        public String toString() {
+            return reason + (detail == null ? "" : " " + detail)
+                + (causeTitle == null ? "" : " (" + causeTitle + ")");
+        }
+    }
+}
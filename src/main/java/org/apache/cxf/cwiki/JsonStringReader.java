@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Reads a single string value out of a JSON document as it comes off the wire.
+ * Rendered pages can be several megabytes, this reads the export_view HTML out of
+ * the response without building a JSON tree or holding the escaped value as well.
+ * The value is unescaped on the fly and can be surrounded by a fixed prefix and suffix.
+ */
+public final class JsonStringReader extends Reader {
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+
+    private final String before;
+    private final String after;
+    private int beforePos;
+    private int afterPos;
+    private boolean inString = true;
+
+    private JsonStringReader(Reader in, String before, String after) {
+        this.in = in;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * @param path the field names leading from the top level object to the string value
+     * @return a reader positioned on the value or null if the document doesn't contain it
+     */
+    public static Reader open(InputStream ins, String before, String after,
+                              String... path) throws IOException {
+        JsonStringReader reader = new JsonStringReader(new InputStreamReader(ins, "UTF-8"),
+                                                       before, after);
+        if (reader.nextNonWhitespace() == '{' && reader.find(path, 0)) {
+            return reader;
+        }
+        return null;
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int n = 0;
+        while (n < len && beforePos < before.length()) {
+            cbuf[off + n++] = before.charAt(beforePos++);
+        }
+        while (n < len && inString) {
+            int c = next();
+            if (c == '"') {
+                inString = false;
+            } else {
+                cbuf[off + n++] = (char)(c == '\\' ? unescape() : c);
+            }
+        }
+        while (n < len && !inString && afterPos < after.length()) {
+            cbuf[off + n++] = after.charAt(afterPos++);
+        }
+        return n == 0 && len > 0 ? -1 : n;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Called after the opening brace of an object.  Returns true once the opening quote
+     * of the value is consumed or false after the closing brace if the object doesn't
+     * contain the path.
+     */
+    private boolean find(String[] path, int depth) throws IOException {
+        int c = nextNonWhitespace();
+        if (c == '}') {
+            return false;
+        }
+        while (true) {
+            expect(c, '"');
+            String name = readName();
+            expect(nextNonWhitespace(), ':');
+            c = nextNonWhitespace();
+            if (name.equals(path[depth]) && depth == path.length - 1 && c == '"') {
+                return true;
+            } else if (name.equals(path[depth]) && depth < path.length - 1 && c == '{') {
+                if (find(path, depth + 1)) {
+                    return true;
+                }
+            } else {
+                skipValue(c);
+            }
+            c = nextNonWhitespace();
+            if (c == '}') {
+                return false;
+            }
+            expect(c, ',');
+            c = nextNonWhitespace();
+        }
+    }
+
+    private String readName() throws IOException {
+        StringBuilder b = new StringBuilder();
+        int c = next();
+        while (c != '"') {
+            b.append((char)(c == '\\' ? unescape() : c));
+            c = next();
+        }
+        return b.toString();
+    }
+
+    private void skipValue(int c) throws IOException {
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = next();
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            //number, true, false or null
+            while (fill() && ",}] \t\r\n".indexOf(buf[pos]) == -1) {
+                pos++;
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c = next();
+        while (c != '"') {
+            if (c == '\\') {
+                next();
+            }
+            c = next();
+        }
+    }
+
+    private int unescape() throws IOException {
+        int c = next();
+        switch (c) {
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int v = 0;
+            for (int x = 0; x < 4; x++) {
+                int d = Character.digit(next(), 16);
+                if (d == -1) {
+                    throw new IOException("Invalid unicode escape in JSON string");
+                }
+                v = (v << 4) + d;
+            }
+            return v;
+        default:
+            //quote, backslash and slash stand for themselves
+            return c;
+        }
+    }
+
+    private void expect(int c, char expected) throws IOException {
+        if (c != expected) {
+            throw new IOException("Unexpected character '" + (char)c + "' in JSON, expected '"
+                                  + expected + "'");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = next();
+        while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+            c = next();
+        }
+        return c;
+    }
+
+    private int next() throws IOException {
+        if (!fill()) {
+            throw new EOFException("Unexpected end of JSON document");
+        }
+        return buf[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        while (pos == limit) {
+            int n = in.read(buf, 0, buf.length);
+            if (n == -1) {
+                return false;
+            }
+            pos = 0;
+            limit = n;
+        }
+        return true;
+    }
+}
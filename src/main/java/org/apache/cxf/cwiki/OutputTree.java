@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * An in-memory index of the files and directories in the output tree.  The tree is
+ * scanned once at startup, the top level directories in parallel, and is kept up to
+ * date as the exporters write and delete files.  Whether a file has to be "svn add"ed
+ * or just modified, and whether a directory has to be created, is then decided without
+ * a stat call per file, which is slow on network file systems.
+ *
+ * Files outside the root directory aren't indexed and are checked on disk.
+ */
+public class OutputTree {
+
+    private final Path root;
+    private final List<Path> excluded = new ArrayList<Path>();
+    private final ConcurrentHashMap<Path, Boolean> paths = new ConcurrentHashMap<Path, Boolean>();
+
+    /**
+     * @param excluded directories below root that are not part of the output (the blob store)
+     */
+    public OutputTree(File root, File... excluded) {
+        this.root = toPath(root);
+        for (File ex : excluded) {
+            this.excluded.add(toPath(ex));
+        }
+    }
+
+    public void scan(int threads) throws Exception {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        paths.put(root, Boolean.TRUE);
+        ExecutorService executor = SiteExporter.newDaemonPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            DirectoryStream<Path> children = Files.newDirectoryStream(root);
+            try {
+                for (final Path child : children) {
+                    if (!Files.isDirectory(child)) {
+                        paths.put(child, Boolean.FALSE);
+                    } else if (!isExcluded(child)) {
+                        futures.add(executor.submit(new Callable<Void>() {
+                            public Void call() throws IOException {
+                                walk(child);
+                                return null;
+                            }
+                        }));
+                    }
+                }
+            } finally {
+                children.close();
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void walk(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                if (isExcluded(d)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                paths.put(d, Boolean.TRUE);
+                return FileVisitResult.CONTINUE;
+            }
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                paths.put(file, attrs.isDirectory());
+                return FileVisitResult.CONTINUE;
+            }
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                //unreadable, treated as missing
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private boolean isExcluded(Path dir) {
+        return ".svn".equals(dir.getFileName().toString()) || excluded.contains(dir);
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    public boolean exists(File file) {
+        Path path = toPath(file);
+        if (!path.startsWith(root)) {
+            return file.exists();
+        }
+        return paths.containsKey(path);
+    }
+
+    /**
+     * Creates the directory if the index doesn't know it.
+     * @return true if the directory had to be created
+     */
+    public boolean mkdirs(File dir) {
+        if (exists(dir)) {
+            return false;
+        }
+        dir.mkdirs();
+        added(toPath(dir), Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Records a file that has been written, along with its parent directories.
+     */
+    public void created(File file) {
+        Path path = toPath(file);
+        if (!path.startsWith(root)) {
+            return;
+        }
+        added(path.getParent(), Boolean.TRUE);
+        paths.put(path, Boolean.FALSE);
+    }
+
+    public void deleted(File file) {
+        paths.remove(toPath(file));
+    }
+
+    private void added(Path dir, Boolean isDir) {
+        while (dir != null && dir.startsWith(root) && paths.putIfAbsent(dir, isDir) == null) {
+            dir = dir.getParent();
+            isDir = Boolean.TRUE;
+        }
+    }
+
+    private static Path toPath(File file) {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+}
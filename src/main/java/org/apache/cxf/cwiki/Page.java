@@ -114,6 +114,7 @@ public class Page extends AbstractPage implements Serializable {
     final XMLGregorianCalendar modified;
     final String parent;
     final String spaceKey;
+    final int version;
     Map<String, String> attachments;
     Set<String> includes;
     Map<String, Integer> childrenOf;
@@ -142,6 +143,9 @@ public class Page extends AbstractPage implements Serializable {
         modified = DatatypeFactory.newInstance().newXMLGregorianCalendar(mod);
         modified.setMillisecond(0);
         
+        String v = DOMUtils.getChildContent(root, "version");
+        version = v == null ? 0 : Integer.parseInt(v.trim());
+        
         String c = DOMUtils.getChildContent(root, "content");
         if (c != null) {
             if (exp.getAPIVersion() == 2) {
@@ -159,6 +163,7 @@ public class Page extends AbstractPage implements Serializable {
         this.modified = source.modified;
         this.parent = source.parent;
         this.spaceKey = source.spaceKey;
+        this.version = source.version;
         this.attachments = source.attachments;
         this.includes = source.includes;
         this.childrenOf = source.childrenOf;
@@ -320,6 +325,13 @@ public class Page extends AbstractPage implements Serializable {
     public XMLGregorianCalendar getModifiedTime() {
         return modified;
     }
+    
+    /**
+     * @return the confluence version of the page or 0 if it was cached before versions were tracked
+     */
+    public int getVersion() {
+        return version;
+    }
 
     public void setContent(String c) {
         renderedContent = c;
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the links between pages, blog entries and spaces of all the exported spaces.
+ * Pages and blog entries are indexed by id and by the path of their URL, so rewriting a
+ * link is a map lookup rather than a scan over the pages of every space.  The exporters
+ * add and remove entries as they discover new, modified and deleted pages.
+ */
+public class PageIndex {
+
+    private final ConcurrentHashMap<String, Entry> byId = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentHashMap<String, Entry> byUrl = new ConcurrentHashMap<String, Entry>();
+    private final Map<String, SiteExporter> spaces = new ConcurrentHashMap<String, SiteExporter>();
+
+    public void add(SiteExporter exporter, AbstractPage page) {
+        Entry entry = new Entry(exporter, page);
+        Entry old = byId.put(page.getId(), entry);
+        if (old != null && old.page.getURL() != null) {
+            //renamed pages have a new URL
+            byUrl.remove(normalize(old.page.getURL()), old);
+        }
+        if (page.getURL() != null) {
+            byUrl.put(normalize(page.getURL()), entry);
+        }
+    }
+
+    public void remove(AbstractPage page) {
+        Entry entry = byId.get(page.getId());
+        if (entry != null && entry.page == page) {
+            byId.remove(page.getId(), entry);
+            if (page.getURL() != null) {
+                byUrl.remove(normalize(page.getURL()), entry);
+            }
+        }
+    }
+
+    /**
+     * Drops all the pages and blog entries of the space, used when its cache is discarded.
+     */
+    public void removeAll(SiteExporter exporter) {
+        for (Iterator<Entry> it = byId.values().iterator(); it.hasNext();) {
+            if (it.next().exporter == exporter) {
+                it.remove();
+            }
+        }
+        for (Iterator<Entry> it = byUrl.values().iterator(); it.hasNext();) {
+            if (it.next().exporter == exporter) {
+                it.remove();
+            }
+        }
+    }
+
+    public void addSpace(String url, SiteExporter exporter) {
+        if (url != null) {
+            spaces.put(normalize(url), exporter);
+        }
+    }
+
+    public Entry findById(String id) {
+        return byId.get(id);
+    }
+
+    public Entry findByURL(String url) {
+        return byUrl.get(normalize(url));
+    }
+
+    /**
+     * @return the exporter of the space the URL is the home page of or null
+     */
+    public SiteExporter findSpace(String url) {
+        return spaces.get(normalize(url));
+    }
+
+    /**
+     * Removes the scheme and host so absolute URLs (as in the page summaries) and the host
+     * relative links in the rendered content match.  The query is kept, confluence uses
+     * viewpage.action?pageId= URLs for some pages.
+     */
+    static String normalize(String url) {
+        int idx = url.indexOf("://");
+        if (idx != -1) {
+            int slash = url.indexOf('/', idx + 3);
+            url = slash == -1 ? "/" : url.substring(slash);
+        }
+        idx = url.indexOf('#');
+        if (idx != -1) {
+            url = url.substring(0, idx);
+        }
+        while (url.length() > 1 && url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        return url;
+    }
+
+    public static final class Entry {
+        final SiteExporter exporter;
+        final AbstractPage page;
+
+        Entry(SiteExporter exporter, AbstractPage page) {
+            this.exporter = exporter;
+            this.page = page;
+        }
+
+        public SiteExporter getExporter() {
+            return exporter;
+        }
+
+        public AbstractPage getPage() {
+            return page;
+        }
+    }
+}
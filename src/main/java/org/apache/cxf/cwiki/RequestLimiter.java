@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Limits the number of concurrent requests to confluence.  The limit is adjusted
+ * AIMD style: it grows by one for every "limit" successful requests and is cut
+ * back whenever a request fails or takes much longer than the average for that
+ * type of request.  It never grows above the configured ceiling.
+ *
+ * Usage:
+ * <pre>
+ *   long start = limiter.acquire("getPage");
+ *   boolean success = false;
+ *   try {
+ *       ...
+ *       success = true;
+ *   } finally {
+ *       limiter.release("getPage", start, success);
+ *   }
+ * </pre>
+ */
+public class RequestLimiter {
+
+    static final double BACKOFF = 0.75;
+    static final double LATENCY_TOLERANCE = 2.5;
+    static final int WARMUP = 10;
+
+    private int maxLimit;
+    private final Map<String, Operation> operations = new TreeMap<String, Operation>();
+    private double limit;
+    private int inFlight;
+    private int maxInFlight;
+    private long lastDecrease;
+
+    public RequestLimiter(int initialLimit, int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.lastDecrease = System.nanoTime();
+    }
+
+    public synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    public synchronized int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public synchronized void setMaxLimit(int max) {
+        maxLimit = Math.max(1, max);
+        limit = Math.min(limit, maxLimit);
+        notifyAll();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Blocks until a request of the given type can be sent.
+     * @return the start time to pass back into release
+     */
+    public synchronized long acquire(String operation) throws InterruptedException {
+        Operation op = getOperation(operation);
+        if (inFlight >= (int)limit) {
+            op.throttled++;
+            while (inFlight >= (int)limit) {
+                wait();
+            }
+        }
+        inFlight++;
+        maxInFlight = Math.max(maxInFlight, inFlight);
+        return System.nanoTime();
+    }
+
+    public synchronized void release(String operation, long start, boolean success) {
+        long now = System.nanoTime();
+        long time = now - start;
+        Operation op = getOperation(operation);
+        inFlight--;
+        op.count++;
+        op.totalNanos += time;
+        if (!success) {
+            op.errors++;
+            decrease(now, time);
+        } else {
+            if (op.count > WARMUP && time > LATENCY_TOLERANCE * op.averageNanos) {
+                decrease(now, time);
+            } else {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            op.averageNanos = op.averageNanos == 0 ? time : op.averageNanos + (time - op.averageNanos) / 10;
+        }
+        notifyAll();
+    }
+
+    private void decrease(long now, long time) {
+        //only back off once per round trip, a burst of slow responses is a single signal
+        if (now - lastDecrease >= time) {
+            limit = Math.max(1, limit * BACKOFF);
+            lastDecrease = now;
+        }
+    }
+
+    private Operation getOperation(String name) {
+        Operation op = operations.get(name);
+        if (op == null) {
+            op = new Operation();
+            operations.put(name, op);
+        }
+        return op;
+    }
+
+    public synchronized void printStatistics(PrintStream out) {
+        out.println("Confluence requests (limit " + (int)limit + "/" + maxLimit
+                    + ", max in flight " + maxInFlight + "):");
+        for (Map.Entry<String, Operation> ent : operations.entrySet()) {
+            Operation op = ent.getValue();
+            out.println("    " + ent.getKey() + ": " + op.count + " requests, "
+                        + op.errors + " errors, " + op.throttled + " throttled, avg "
+                        + (op.count == 0 ? 0 : op.totalNanos / op.count / 1000000) + "ms");
+        }
+    }
+
+    static final class Operation {
+        long count;
+        long errors;
+        long throttled;
+        long totalNanos;
+        double averageNanos;
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.cxf.transport.http.HTTPException;
+
+/**
+ * Runs calls to confluence through the request limiter, retrying failed calls
+ * with jittered exponential backoff (or after the Retry-After the server asked
+ * for on a 429/503).  Every endpoint has a circuit breaker that opens after a
+ * number of consecutive failures, after which calls fail fast with a
+ * CircuitOpenException until the breaker lets a trial call through again.
+ */
+public class RetryPolicy {
+
+    static final int MAX_RETRIES = 5;
+    static final long BASE_DELAY = 1000;
+    static final long MAX_DELAY = 60 * 1000;
+    static final long MAX_RETRY_AFTER = 5 * 60 * 1000;
+    static final int FAILURE_THRESHOLD = 10;
+    static final long OPEN_TIME = 60 * 1000;
+
+    private final RequestLimiter limiter;
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers
+        = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    public RetryPolicy(RequestLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    public <T> T execute(String endpoint, String operation, Callable<T> call) throws Exception {
+        CircuitBreaker breaker = getCircuitBreaker(endpoint);
+        int attempt = 0;
+        while (true) {
+            breaker.check();
+            long start = limiter.acquire(operation);
+            boolean success = false;
+            boolean released = false;
+            try {
+                T ret = call.call();
+                success = true;
+                breaker.recordSuccess();
+                return ret;
+            } catch (Exception ex) {
+                if (!isRetriable(ex)) {
+                    //confluence answered, it's just not something retrying will fix
+                    breaker.recordSuccess();
+                    throw ex;
+                }
+                long retryAfter = getRetryAfter(ex);
+                breaker.recordFailure(retryAfter);
+                if (attempt >= MAX_RETRIES) {
+                    throw ex;
+                }
+                long delay = retryAfter > 0 ? retryAfter : getBackoff(attempt);
+                System.out.println("Retrying " + operation + " in " + delay + "ms after: " + ex.getMessage());
+                //don't hold on to the slot while waiting
+                limiter.release(operation, start, false);
+                released = true;
+                Thread.sleep(delay);
+                attempt++;
+            } finally {
+                if (!released) {
+                    limiter.release(operation, start, success);
+                }
+            }
+        }
+    }
+
+    public CircuitBreaker getCircuitBreaker(String endpoint) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(endpoint);
+            CircuitBreaker old = breakers.putIfAbsent(endpoint, breaker);
+            if (old != null) {
+                breaker = old;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * A random delay between half and all of the exponential backoff for the attempt
+     * so that the retries of concurrent requests don't all arrive at the same time
+     */
+    static long getBackoff(int attempt) {
+        long max = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(max / 2, max + 1);
+    }
+
+    static boolean isRetriable(Throwable ex) {
+        int status = getStatus(ex);
+        if (status != -1) {
+            return status == 429 || status == 502 || status == 503 || status == 504;
+        }
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof CircuitOpenException) {
+                return false;
+            }
+            if (t instanceof IOException) {
+                //connection refused/reset, timeouts and such
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int getStatus(Throwable ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof HttpStatusException) {
+                return ((HttpStatusException)t).getStatus();
+            }
+            if (t instanceof HTTPException) {
+                return ((HTTPException)t).getResponseCode();
+            }
+        }
+        return -1;
+    }
+
+    static long getRetryAfter(Throwable ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof HttpStatusException) {
+                return parseRetryAfter(((HttpStatusException)t).getRetryAfter());
+            }
+        }
+        return 0;
+    }
+
+    static long parseRetryAfter(String value) {
+        if (value == null || value.trim().length() == 0) {
+            return 0;
+        }
+        long delay;
+        try {
+            delay = Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+                Date date = format.parse(value.trim());
+                delay = date.getTime() - System.currentTimeMillis();
+            } catch (java.text.ParseException e2) {
+                return 0;
+            }
+        }
+        return Math.max(0, Math.min(delay, MAX_RETRY_AFTER));
+    }
+
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException(String endpoint) {
+            super("Circuit breaker for " + endpoint + " is open, confluence is not responding");
+        }
+    }
+
+    public static class CircuitBreaker {
+        private final String endpoint;
+        private int failures;
+        private long openUntil;
+        private boolean trial;
+
+        CircuitBreaker(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public synchronized boolean isOpen() {
+            return failures >= FAILURE_THRESHOLD;
+        }
+
+        /**
+         * Fails fast while the breaker is open.  Once the open time has passed a single
+         * trial call is let through, the outcome of which closes or re-opens the breaker.
+         */
+        synchronized void check() throws CircuitOpenException {
+            if (failures < FAILURE_THRESHOLD) {
+                return;
+            }
+            if (trial || System.currentTimeMillis() < openUntil) {
+                throw new CircuitOpenException(endpoint);
+            }
+            trial = true;
+        }
+
+        synchronized void recordSuccess() {
+            failures = 0;
+            trial = false;
+        }
+
+        synchronized void recordFailure(long retryAfter) {
+            failures++;
+            if (failures >= FAILURE_THRESHOLD) {
+                if (!trial) {
+                    System.out.println("Opening circuit breaker for " + endpoint);
+                }
+                openUntil = System.currentTimeMillis() + Math.max(OPEN_TIME, retryAfter);
+                trial = false;
+            }
+        }
+    }
+}
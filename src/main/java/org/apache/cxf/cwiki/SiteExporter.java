@@ -19,6 +19,7 @@
 
 package org.apache.cxf.cwiki;
 
+import java.awt.Dimension;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -27,6 +28,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
@@ -34,33 +36,45 @@ import java.io.Writer;
 import java.net.Authenticator;
 import java.net.PasswordAuthentication;
 import java.net.URL;
-import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.ws.rs.core.Response;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.ws.AsyncHandler;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.ws.BindingProvider;
 import javax.xml.ws.Dispatch;
-import javax.xml.ws.Response;
 import javax.xml.ws.Service;
+import javax.xml.ws.WebServiceException;
 import javax.xml.ws.soap.SOAPBinding;
 
 import org.w3c.dom.Document;
@@ -71,25 +85,21 @@ import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
-
-import org.apache.cxf.clustering.FailoverFeature;
-import org.apache.cxf.clustering.RetryStrategy;
 import org.apache.cxf.common.classloader.ClassLoaderUtils;
 import org.apache.cxf.common.util.Base64Utility;
-import org.apache.cxf.feature.Feature;
+import org.apache.cxf.endpoint.Client;
 import org.apache.cxf.helpers.CastUtils;
 import org.apache.cxf.helpers.DOMUtils;
 import org.apache.cxf.helpers.FileUtils;
 import org.apache.cxf.helpers.IOUtils;
 import org.apache.cxf.interceptor.LoggingInInterceptor;
 import org.apache.cxf.interceptor.LoggingOutInterceptor;
+import org.apache.cxf.jaxrs.client.ClientConfiguration;
 import org.apache.cxf.jaxrs.client.JAXRSClientFactoryBean;
+import org.apache.cxf.jaxrs.client.WebClient;
+import org.apache.cxf.message.Message;
 import org.apache.cxf.staxutils.StaxUtils;
 import org.apache.cxf.transport.http.HTTPConduit;
-import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
@@ -109,6 +119,11 @@ public class SiteExporter implements Runnable {
     static final String RPC_ROOT = "/rpc/soap-axis/confluenceservice-v";    
     static final String SOAPNS = "http://soap.rpc.confluence.atlassian.com";
     static final String REST_API = ROOT + "/rest/api";
+    static final int REST_PAGE_SIZE = 100;
+    static final int FINGERPRINT_LENGTH = 12;
+    static final String BLOB_STORE_DIR = ".blobs";
+    // CQL dates only have minute precision and are in the server time zone
+    static final long CHANGE_OVERLAP = 24L * 60 * 60 * 1000;
     
     static final String SEPARATOR = "&nbsp;&gt;&nbsp;";
     
@@ -118,26 +133,86 @@ public class SiteExporter implements Runnable {
     static String userName = "cxf-export-user";
     static String password;
     
-    static int apiVersion = 1;
+    static volatile int apiVersion = 1;
     
     static boolean svn;
+    static boolean restDiscovery;
+    static boolean incremental;
+    static long fullScanInterval = 24L * 60 * 60 * 1000;
     static boolean commit;
-    static StringBuilder svnCommitMessage = new StringBuilder();
+    //appended to by all the exporters while they initialize concurrently
+    static StringBuffer svnCommitMessage = new StringBuffer();
     
     static File rootOutputDir = new File(".");
-    static String loginToken;
+    static volatile String loginToken;
+    static final Object LOGIN_LOCK = new Object();
     static Dispatch<Document> dispatch;
+    static Dispatch<Source> sourceDispatch;
     static ContentResource contentResource;
-    static AtomicInteger asyncCount = new AtomicInteger();
+    static RequestLimiter limiter = new RequestLimiter(15, 30);
+    static RetryPolicy retryPolicy = new RetryPolicy(limiter);
+    static ExecutorService requestExecutor;
+    static int downloadThreads = 8;
+    static int maxDownloadsPerHost = 4;
+    static Downloader downloader;
+    static File blobStoreDir;
+    static boolean localThumbnails;
+    //the scan of the output tree, it's run by the first caller outside of the class lock so
+    //the clients and pools can be created while the tree is indexed
+    static volatile FutureTask<OutputTree> outputTree;
+    static final Object OUTPUT_TREE_LOCK = new Object();
+    static boolean fingerprint;
+    //work out which pages would be rendered and why, without rendering them
+    static boolean explain;
+    static CacheManifest cacheManifest;
+    static ExecutorService thumbnailExecutor;
+    static BlobStore blobStore;
     static Map<String, Space> spaces = new ConcurrentHashMap<String, Space>();
+    static ConcurrentHashMap<String, FutureTask<Space>> spaceLoads
+        = new ConcurrentHashMap<String, FutureTask<Space>>();
+    //the renderPage calls in flight, by page id, version, output directory and how the content
+    //is rendered
+    static ConcurrentHashMap<String, FutureTask<String>> renderLoads
+        = new ConcurrentHashMap<String, FutureTask<String>>();
+    //the user images and thumbnails fetched this run, by normalized href, to their blob
+    static ConcurrentHashMap<String, FutureTask<String>> binaryLoads
+        = new ConcurrentHashMap<String, FutureTask<String>>();
     static List<SiteExporter> siteExporters;
+    //the pages, blog entries and spaces of all the exporters, for resolving links
+    static PageIndex pageIndex = new PageIndex();
 
     Map<String, Page> pages = new ConcurrentHashMap<String, Page>();
+    //the pages and blog entries by title, kept in line with the maps by id by index()/unindex()
+    ConcurrentHashMap<String, AbstractPage> pageTitles = new ConcurrentHashMap<String, AbstractPage>();
+    ConcurrentHashMap<String, AbstractPage> blogTitles = new ConcurrentHashMap<String, AbstractPage>();
+    //parent id to the child pages by id and page id to the memoized breadcrumb trail ending with the page
+    ConcurrentHashMap<String, ConcurrentHashMap<String, Page>> childPages
+        = new ConcurrentHashMap<String, ConcurrentHashMap<String, Page>>();
+    ConcurrentHashMap<String, String> breadcrumbTrails = new ConcurrentHashMap<String, String>();
+    DependencyGraph dependencies = new DependencyGraph();
+    Invalidations invalidations = new Invalidations();
     Collection<Page> modifiedPages = new ConcurrentLinkedQueue<Page>();
     Set<String> globalPages = new CopyOnWriteArraySet<String>();
     
     Map<String, BlogEntrySummary> blog = new ConcurrentHashMap<String, BlogEntrySummary>();
     Set<BlogEntrySummary> modifiedBlog = new CopyOnWriteArraySet<BlogEntrySummary>();
+    // pages and blog entries that could not be loaded or rendered, retried on the next run
+    Set<String> deferredIds = new CopyOnWriteArraySet<String>();
+    // attachment id -> the version of the attachment that was last downloaded
+    Map<String, Attachment> attachmentManifest = new ConcurrentHashMap<String, Attachment>();
+    boolean attachmentsSynced;
+    List<PendingDownload> pendingDownloads = new ArrayList<PendingDownload>();
+    //the queued downloads by file, fingerprinting a link has to wait for the file
+    Map<File, Future<Long>> pendingFiles = new ConcurrentHashMap<File, Future<Long>>();
+    //rendering an include of another space can add to this from that space's thread
+    Queue<PendingThumbnail> pendingThumbnails = new ConcurrentLinkedQueue<PendingThumbnail>();
+    Set<File> pendingThumbnailFiles = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    //the attachments written this run, a linked blob keeps the modification time of the blob
+    Set<File> writtenAttachments = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    //the dash named copy of an attachment with spaces in its name to the attachment itself
+    Map<File, File> dashedAttachments = new ConcurrentHashMap<File, File>();
+    //thumbnails, user images and attachments that failed to download while rendering
+    Queue<FailedDownload> failedDownloads = new ConcurrentLinkedQueue<FailedDownload>();
     
 
     String spaceKey = "CXF";
@@ -147,6 +222,11 @@ public class SiteExporter implements Runnable {
     boolean forceAll;
     String breadCrumbRoot;
     
+    long runStart;
+    long lastRun;
+    long lastFullScan;
+    boolean fullScan;
+    
     File outputDir = rootOutputDir;
 
     Template template;
@@ -217,71 +297,197 @@ public class SiteExporter implements Runnable {
         outputDir.mkdirs();
     }
     
-    public static synchronized ContentResource getContentResource() {
+    public static synchronized ContentResource getContentResource() throws IOException {
         if (contentResource == null) {
-            FailoverFeature failover = new FailoverFeature();
-            RetryStrategy rs = new RetryStrategy();
-            rs.setMaxNumberOfRetries(25);
-            List<String> alternateAddresses = new ArrayList<String>();
-            alternateAddresses.add(REST_API);
-            rs.setAlternateAddresses(alternateAddresses);
-            failover.setStrategy(rs);
+            //retries are handled by the RetryPolicy
             JAXRSClientFactoryBean bean = new JAXRSClientFactoryBean();
             bean.setAddress(REST_API);
             
             bean.setServiceClass(ContentResource.class);
-            List<Feature> features = new ArrayList<Feature>();
-            
-            
-            features.add(failover);
-            bean.setFeatures(features);
             bean.setUsername(userName);
             bean.setPassword(password);
             contentResource = bean.create(ContentResource.class);
+            ClientConfiguration config = WebClient.getConfig(contentResource);
+            HttpTransport.configure(config.getHttpConduit(), config);
         }
         return contentResource;
     }
-    public static synchronized Dispatch<Document> getDispatch() {
+    /**
+     * Invokes the SOAP operation through the shared request limiter and retry policy
+     */
+    static Document invoke(final Document doc) throws Exception {
+        return retryPolicy.execute("soap", doc.getDocumentElement().getLocalName(), new Callable<Document>() {
+            public Document call() throws Exception {
+                Dispatch<Document> disp = getDispatch();
+                try {
+                    return disp.invoke((Document)doc.cloneNode(true));
+                } catch (WebServiceException ex) {
+                    throw toStatusException(ex, disp);
+                }
+            }
+        });
+    }
+    
+    private static Exception toStatusException(WebServiceException ex, Dispatch<?> disp) {
+        int status = RetryPolicy.getStatus(ex);
+        if (status != -1) {
+            return new HttpStatusException(status, getRetryAfter(disp), ex);
+        }
+        return ex;
+    }
+    
+    private static String getRetryAfter(Dispatch<?> disp) {
+        Map<String, List<String>> headers = 
+            CastUtils.cast((Map<?, ?>)disp.getResponseContext().get(Message.PROTOCOL_HEADERS));
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> ent : headers.entrySet()) {
+                if ("Retry-After".equalsIgnoreCase(ent.getKey()) && !ent.getValue().isEmpty()) {
+                    return ent.getValue().get(0);
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The generated REST proxies return the Response as is, error statuses need to be
+     * turned into exceptions so the RetryPolicy can see them.
+     */
+    static InputStream readEntity(Response r) throws HttpStatusException {
+        if (r.getStatus() >= 300) {
+            String retryAfter = r.getHeaderString("Retry-After");
+            r.close();
+            throw new HttpStatusException(r.getStatus(), retryAfter, r.getStatusInfo().getReasonPhrase());
+        }
+        return r.readEntity(InputStream.class);
+    }
+    
+    static synchronized ExecutorService getRequestExecutor() {
+        if (requestExecutor == null) {
+            requestExecutor = newDaemonPool(limiter.getMaxLimit());
+        }
+        return requestExecutor;
+    }
+    
+    static synchronized Downloader getDownloader() {
+        if (downloader == null) {
+            downloader = new Downloader(retryPolicy, downloadThreads, maxDownloadsPerHost);
+        }
+        return downloader;
+    }
+    
+    static synchronized ExecutorService getThumbnailExecutor() {
+        if (thumbnailExecutor == null) {
+            thumbnailExecutor = newDaemonPool(Runtime.getRuntime().availableProcessors());
+        }
+        return thumbnailExecutor;
+    }
+    
+    static OutputTree getOutputTree() throws Exception {
+        FutureTask<OutputTree> scan = outputTree;
+        if (scan == null) {
+            synchronized (OUTPUT_TREE_LOCK) {
+                if (outputTree == null) {
+                    outputTree = new FutureTask<OutputTree>(new Callable<OutputTree>() {
+                        public OutputTree call() throws Exception {
+                            return scanOutputTree();
+                        }
+                    });
+                }
+                scan = outputTree;
+            }
+        }
+        //only the first caller scans, the others wait for it
+        scan.run();
+        try {
+            return scan.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+        }
+    }
+    
+    private static OutputTree scanOutputTree() throws Exception {
+        OutputTree tree = new OutputTree(rootOutputDir, getBlobStoreDir());
+        long start = System.currentTimeMillis();
+        tree.scan(Math.max(4, Runtime.getRuntime().availableProcessors()));
+        System.out.println("Indexed " + tree.size() + " files of the output tree in " 
+                           + (System.currentTimeMillis() - start) + "ms");
+        return tree;
+    }
+    
+    static synchronized File getBlobStoreDir() {
+        if (blobStoreDir == null) {
+            blobStoreDir = new File(rootOutputDir, BLOB_STORE_DIR);
+        }
+        return blobStoreDir;
+    }
+    
+    static synchronized BlobStore getBlobStore() {
+        if (blobStore == null) {
+            blobStore = new BlobStore(getBlobStoreDir());
+        }
+        return blobStore;
+    }
+    
+    static ExecutorService newDaemonPool(int size) {
+        return Executors.newFixedThreadPool(size, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+    
+    public static synchronized Dispatch<Document> getDispatch() throws IOException {
         if (dispatch == null) {
-            
-            FailoverFeature failover = new FailoverFeature();
-            RetryStrategy rs = new RetryStrategy();
-            rs.setMaxNumberOfRetries(25);
-            List<String> alternateAddresses = new ArrayList<String>();
-            alternateAddresses.add(ROOT + RPC_ROOT + apiVersion);
-            alternateAddresses.add(ROOT + RPC_ROOT + apiVersion);
-            alternateAddresses.add(ROOT + RPC_ROOT + apiVersion);
-            rs.setAlternateAddresses(alternateAddresses);
-            failover.setStrategy(rs);
-            
-            
-            Service service = Service.create(new QName(SOAPNS, "Service"), failover);
-            service.addPort(new QName(SOAPNS, "Port"), 
-                            SOAPBinding.SOAP11HTTP_BINDING,
-                            ROOT + RPC_ROOT + apiVersion);
-    
-            dispatch = service.createDispatch(new QName(SOAPNS, "Port"), 
-                                              Document.class, Service.Mode.PAYLOAD);
-            if (debug) {
-                ((org.apache.cxf.jaxws.DispatchImpl<?>)dispatch).getClient()
-                    .getEndpoint().getInInterceptors().add(new LoggingInInterceptor());
-                ((org.apache.cxf.jaxws.DispatchImpl<?>)dispatch).getClient()
-                    .getEndpoint().getOutInterceptors().add(new LoggingOutInterceptor());
-            }
-            HTTPConduit c = (HTTPConduit)((org.apache.cxf.jaxws.DispatchImpl<?>)dispatch)
-                .getClient().getConduit();
-            HTTPClientPolicy clientPol = c.getClient();
-            if (clientPol == null) {
-                clientPol = new HTTPClientPolicy();
-            }
-            //CAMEL has a couple of HUGE HUGE pages that take a long time to render
-            clientPol.setReceiveTimeout(5 * 60 * 1000);
-            c.setClient(clientPol);
-            
+            dispatch = createDispatch(Document.class);
         }
         return dispatch;
     }
     
+    /**
+     * A Source dispatch hands back a StaxSource that still reads from the connection,
+     * used for the responses that are too large to build a DOM for.
+     */
+    public static synchronized Dispatch<Source> getSourceDispatch() throws IOException {
+        if (sourceDispatch == null) {
+            sourceDispatch = createDispatch(Source.class);
+        }
+        return sourceDispatch;
+    }
+    
+    private static <T> Dispatch<T> createDispatch(Class<T> type) throws IOException {
+        //retries are handled by the RetryPolicy
+        Service service = Service.create(new QName(SOAPNS, "Service"));
+        service.addPort(new QName(SOAPNS, "Port"), 
+                        SOAPBinding.SOAP11HTTP_BINDING,
+                        ROOT + RPC_ROOT + apiVersion);
+
+        Dispatch<T> disp = service.createDispatch(new QName(SOAPNS, "Port"), 
+                                                  type, Service.Mode.PAYLOAD);
+        Client client = ((org.apache.cxf.jaxws.DispatchImpl<?>)disp).getClient();
+        if (debug) {
+            client.getEndpoint().getInInterceptors().add(new LoggingInInterceptor());
+            client.getEndpoint().getOutInterceptors().add(new LoggingOutInterceptor());
+        }
+        HttpTransport.configure((HTTPConduit)client.getConduit(), client);
+        return disp;
+    }
+    
+    private static synchronized void setAPIVersion(int version) {
+        if (apiVersion != version) {
+            apiVersion = version;
+            //keep the dispatches and their connections, just point them at the new endpoint
+            for (Dispatch<?> disp : new Dispatch<?>[] {dispatch, sourceDispatch}) {
+                if (disp != null) {
+                    disp.getRequestContext().put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY,
+                                                 ROOT + RPC_ROOT + apiVersion);
+                }
+            }
+        }
+    }
+    
     public void run() {
         try {
             render();
@@ -294,8 +500,10 @@ public class SiteExporter implements Runnable {
         Page p = findPage(s);
         if (p != null) {
             pages.remove(p.getId());
+            unindex(p);
             if (!modifiedPages.contains(p)) {
                 modifiedPages.add(p);
+                invalidations.record(p, Invalidations.FORCED, null, null);
             }
         }
     }
@@ -305,8 +513,11 @@ public class SiteExporter implements Runnable {
      * @throws Exception
      */
     public boolean initialize() throws Exception {
+        runStart = System.currentTimeMillis();
         if (!forceAll) {
             loadCache();
+            loadRunState();
+            loadAttachmentManifest();
         }
         
         // debug stuff, force regen of a page
@@ -327,17 +538,39 @@ public class SiteExporter implements Runnable {
 
         doLogin();
         checkVersion();
-        getSpace();
+        pageIndex.addSpace(getSpace().getURL(), this);
         if ("-space-".equals(breadCrumbRoot)) {
             breadCrumbRoot = space.getName();
         }
-        loadBlog();
-        loadPages();
+        if (incremental && canLoadChanges()) {
+            loadChanges();
+        } else {
+            //the blog and the pages don't depend on each other, discover them at the same time
+            Future<Void> blogLoad = getRequestExecutor().submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    loadBlog();
+                    return null;
+                }
+            });
+            loadPages();
+            blogLoad.get();
+            fullScan = true;
+        }
         
         return true;
     }
+    
+    /**
+     * A full listing is still needed every fullScanInterval to pick up deleted pages
+     * and blog entries as the change feed only reports created and modified content.
+     */
+    private boolean canLoadChanges() {
+        return lastRun > 0 
+            && !pages.isEmpty()
+            && runStart - lastFullScan < fullScanInterval;
+    }
         
-    private void checkVersion() throws ParserConfigurationException, IOException {
+    private void checkVersion() throws Exception {
         Document doc = DOMUtils.createDocument();
         Element el = doc.createElementNS(SOAPNS, "ns1:getServerInfo");
         Element el2 = doc.createElement("in0");
@@ -345,15 +578,13 @@ public class SiteExporter implements Runnable {
         el2.setTextContent(loginToken);
         doc.appendChild(el);
 
-        doc = getDispatch().invoke(doc);
+        doc = invoke(doc);
         el = DOMUtils.getFirstElement(DOMUtils.getFirstElement(doc.getDocumentElement()));
         while (el != null) {
             if ("majorVersion".equals(el.getLocalName())) {
                 String major = DOMUtils.getContent(el);
                 if (Integer.parseInt(major) >= 5) {
-                    apiVersion = 2;
-                    ((java.io.Closeable)dispatch).close();
-                    dispatch = null;
+                    setAPIVersion(2);
                 }
             }
               
@@ -364,6 +595,9 @@ public class SiteExporter implements Runnable {
     protected void render() throws Exception {
         for (Page p : modifiedPages) {
             if (globalPages.contains(p.getTitle())) {
+                for (Page p2 : pages.values()) {
+                    invalidations.record(p2, Invalidations.GLOBAL, p.getTitle(), p);
+                }
                 modifiedPages.clear();
                 modifiedPages.addAll(pages.values());
                 break;
@@ -371,6 +605,9 @@ public class SiteExporter implements Runnable {
         }
         
         if (forceAll) {
+            for (Page p : pages.values()) {
+                invalidations.record(p, Invalidations.FORCE_ALL, null, null);
+            }
             modifiedPages.clear();
             modifiedPages.addAll(pages.values());
             
@@ -378,33 +615,72 @@ public class SiteExporter implements Runnable {
             modifiedBlog.addAll(blog.values());
         }
         if (!modifiedBlog.isEmpty()) {
-            //blogs changed, see if any pages have blogs
-            for (Page p : pages.values()) {
-                if (p.hasBlog() && !modifiedPages.contains(p)) {
-                    modifiedPages.add(p);
-                }
+            //blogs changed, the pages listing the blog and the pages including those change too
+            invalidateDependents(Collections.<Page>emptyList(), true);
+        }
+        if (explain) {
+            //the pages a changed attachment renders again, without downloading anything
+            List<Attachment> current = null;
+            try {
+                current = listAttachments();
+            } catch (Exception e) {
+                System.out.println("(" + spaceKey + ") Could not list the attachments, "
+                                   + "the pages with changed attachments are left out: " + e.getMessage());
+            }
+            if (current != null) {
+                checkAttachments(current, new HashSet<String>(), new ArrayList<Attachment>());
             }
+            explain();
+            return;
         }
+        //the attachment downloads run in the background while the pages are rendered
+        attachmentsSynced = syncAttachments();
         if (!modifiedPages.isEmpty() || !modifiedBlog.isEmpty()) {
             renderBlog();
             renderPages();
             saveCache();
         }
+        if (attachmentsSynced) {
+            finishAttachments();
+        }
+        finishThumbnails();
+        retryFailedDownloads();
+        saveRunState();
     }
 
 
+    /**
+     * Prints how many pages would be rendered for each reason and writes the reason
+     * chain of every page next to the page cache.
+     */
+    private void explain() throws Exception {
+        File file = new File(rootOutputDir, pageCacheFile + ".explain.json");
+        file.getParentFile().mkdirs();
+        invalidations.write(file, spaceKey, pages.size(), modifiedPages, modifiedBlog.size());
+        System.out.println("(" + spaceKey + ") " + modifiedPages.size() + " of " + pages.size()
+                           + " pages and " + modifiedBlog.size() + " blog entries would be rendered "
+                           + invalidations.getCounts(modifiedPages) + ", see " + file);
+    }
+
     public boolean checkRSS() throws Exception {
         if (forceAll || pages == null || pages.isEmpty()) {
             return false;
         }
-        URL url = new URL(ROOT + "/createrssfeed.action?types=page&types=blogpost&types=mail&"
+        final String url = ROOT + "/createrssfeed.action?types=page&types=blogpost&types=mail&"
                           //+ "types=comment&"  //cannot handle comment updates yet
                           + "types=attachment&statuses=created&statuses=modified"
                           + "&spaces=" + spaceKey + "&rssType=atom&maxResults=20&timeSpan=2"
-                          + "&publicFeed=true");
-        InputStream ins = url.openStream();
-        Document doc = StaxUtils.read(ins);
-        ins.close();
+                          + "&publicFeed=true";
+        Document doc = retryPolicy.execute("download", "rss", new Callable<Document>() {
+            public Document call() throws Exception {
+                InputStream ins = HttpTransport.openConnection(url).getInputStream();
+                try {
+                    return StaxUtils.read(ins);
+                } finally {
+                    ins.close();
+                }
+            }
+        });
         List<Element> els = DOMUtils.getChildrenWithName(doc.getDocumentElement(),
                                                         "http://www.w3.org/2005/Atom", 
                                                         "entry");
@@ -443,13 +719,103 @@ public class SiteExporter implements Runnable {
     private void saveCache() throws Exception {
         File file = new File(rootOutputDir, pageCacheFile);
         file.getParentFile().mkdirs();
+        Map<String, Page> savedPages = pages;
+        Map<String, BlogEntrySummary> savedBlog = blog;
+        if (!deferredIds.isEmpty()) {
+            //leave them out of the cache so they are considered new on the next run
+            System.out.println("(" + spaceKey + ") Deferring " + deferredIds.size() 
+                               + " pages to the next run");
+            savedPages = new ConcurrentHashMap<String, Page>(pages);
+            savedPages.keySet().removeAll(deferredIds);
+            savedBlog = new ConcurrentHashMap<String, BlogEntrySummary>(blog);
+            savedBlog.keySet().removeAll(deferredIds);
+        }
         FileOutputStream fout = new FileOutputStream(file);
         ObjectOutputStream oout = new ObjectOutputStream(fout);
-        oout.writeObject(pages);
-        oout.writeObject(blog);
+        oout.writeObject(savedPages);
+        oout.writeObject(savedBlog);
         oout.close();
     }
 
+    private File getAttachmentManifestFile() {
+        return new File(rootOutputDir, pageCacheFile + ".attachments");
+    }
+    
+    private void loadAttachmentManifest() {
+        File file = getAttachmentManifestFile();
+        if (file.exists()) {
+            try {
+                ObjectInputStream oin = new ObjectInputStream(new FileInputStream(file));
+                try {
+                    attachmentManifest = CastUtils.cast((Map<?, ?>)oin.readObject());
+                } finally {
+                    oin.close();
+                }
+                for (Attachment att : attachmentManifest.values()) {
+                    if (att.getDirectory() != null) {
+                        addDashedName(new File(outputDir, att.getDirectory()), att.getFileName());
+                    }
+                }
+            } catch (Throwable t) {
+                //invalid manifest, everything is downloaded again
+                attachmentManifest.clear();
+            }
+        }
+    }
+    
+    private void saveAttachmentManifest() throws Exception {
+        File file = getAttachmentManifestFile();
+        file.getParentFile().mkdirs();
+        ObjectOutputStream oout = new ObjectOutputStream(new FileOutputStream(file));
+        try {
+            oout.writeObject(attachmentManifest);
+        } finally {
+            oout.close();
+        }
+    }
+    
+    private File getRunStateFile() {
+        return new File(rootOutputDir, pageCacheFile + ".state");
+    }
+    
+    private void loadRunState() throws Exception {
+        File file = getRunStateFile();
+        if (file.exists()) {
+            Properties props = new Properties();
+            FileInputStream fin = new FileInputStream(file);
+            try {
+                props.load(fin);
+            } finally {
+                fin.close();
+            }
+            lastRun = Long.parseLong(props.getProperty("lastRun." + spaceKey, "0"));
+            lastFullScan = Long.parseLong(props.getProperty("lastFullScan." + spaceKey, "0"));
+        }
+    }
+    
+    private void saveRunState() throws Exception {
+        if (!deferredIds.isEmpty()) {
+            //the deferred pages need to show up in the next change feed
+            return;
+        }
+        lastRun = runStart;
+        if (fullScan) {
+            lastFullScan = runStart;
+        }
+        Properties props = new Properties();
+        props.setProperty("lastRun." + spaceKey, Long.toString(lastRun));
+        props.setProperty("lastFullScan." + spaceKey, Long.toString(lastFullScan));
+        
+        File file = getRunStateFile();
+        file.getParentFile().mkdirs();
+        FileOutputStream fout = new FileOutputStream(file);
+        try {
+            props.store(fout, "Last successful export of " + spaceKey);
+        } finally {
+            fout.close();
+        }
+    }
+
     private void renderPages() throws Exception {
         PageManager pageManager = new PageManager(this);
         Renderer renderer = new Renderer(this);
@@ -460,7 +826,9 @@ public class SiteExporter implements Runnable {
             count++;
             System.out.println("(" + spaceKey + ") Rendering " + p.getTitle() 
                                + "    (" + count + "/" + total + ")");
-            loadAttachments(p);
+            if (!attachmentsSynced) {
+                loadAttachments(p);
+            }
             
             try {
                 loadPageContent(p, null, null);
@@ -475,12 +843,13 @@ public class SiteExporter implements Runnable {
                 ctx.put("exporter", this);
                 
                 File file = new File(outputDir, p.createFileName());
-                boolean isNew = !file.exists();
+                boolean isNew = !getOutputTree().exists(file);
                 
                 FileWriter writer = new FileWriter(file);
                 ctx.put("out", writer);
                 template.merge(ctx, writer);
                 writer.close();
+                getOutputTree().created(file);
                 if (isNew) {
                     //call "svn add"
                     callSvn("add", file.getAbsolutePath());
@@ -493,6 +862,7 @@ public class SiteExporter implements Runnable {
             } catch (Exception e) {
                 System.out.println("Could not render page " + p.getTitle() + " due to " + e.getMessage());
                 e.printStackTrace();
+                deferredIds.add(p.getId());
             }
 
         }
@@ -510,9 +880,10 @@ public class SiteExporter implements Runnable {
                                + "    (" + count + "/" + total + ")");
             
             try {
-                loadAttachments(entry);
-                String body = renderPage(entry);
-                body = updateContentLinks(entry, body, null, mainDivClass);
+                if (!attachmentsSynced) {
+                    loadAttachments(entry);
+                }
+                String body = renderPage(entry, null, mainDivClass);
                 
                 pageManager.setDirectory(entry.getDirectory());
                 
@@ -527,13 +898,14 @@ public class SiteExporter implements Runnable {
                 ctx.put("isBlogEntry", Boolean.TRUE);
                 
                 File file = new File(outputDir, entry.getPath());
-                file.getParentFile().mkdirs();
-                boolean isNew = !file.exists();
+                getOutputTree().mkdirs(file.getParentFile());
+                boolean isNew = !getOutputTree().exists(file);
                 
                 FileWriter writer = new FileWriter(file);
                 ctx.put("out", writer);
                 template.merge(ctx, writer);
                 writer.close();
+                getOutputTree().created(file);
                 if (isNew) {
                     //call "svn add"
                     callSvn("add", file.getAbsolutePath());
@@ -544,6 +916,7 @@ public class SiteExporter implements Runnable {
             } catch (Exception e) {
                 System.out.println("Could not render blog " + entry.getTitle() + " due to " + e.getMessage());
                 e.printStackTrace();
+                deferredIds.add(entry.getId());
             }
         }
     }
@@ -551,6 +924,28 @@ public class SiteExporter implements Runnable {
     void callSvn(String ... commands) throws Exception {
         callSvn(outputDir, commands);
     }
+    /**
+     * Adds the name to the svn:ignore property of the directory unless it is already listed.
+     * The property change is committed with the rest of the run.
+     */
+    static void svnIgnore(File dir, String name) throws Exception {
+        if (!svn) {
+            return;
+        }
+        Process p = Runtime.getRuntime().exec(new String[] {"svn", "--non-interactive", "propget",
+                                                            "svn:ignore", "."}, new String[0], dir);
+        //fails if the property isn't set yet, which is the same as an empty list
+        String ignored = IOUtils.toString(p.getInputStream()).trim();
+        p.waitFor();
+        for (String line : ignored.split("\\r?\\n")) {
+            if (line.trim().equals(name)) {
+                return;
+            }
+        }
+        callSvn(dir, "propset", "svn:ignore", ignored.length() == 0 ? name : ignored + "\n" + name, ".");
+        svnCommitMessage.append("Ignored: " + name + "\n");
+    }
+
     static void callSvn(File dir, String ... commands) throws Exception {
         if (svn) {
             List<String> cmds = new ArrayList<String>();
@@ -565,6 +960,186 @@ public class SiteExporter implements Runnable {
         }
     }
     
+    /**
+     * Lists all the attachments of the space and only downloads the ones that are new
+     * or differ from the manifest, independent of which pages are re-rendered.  The
+     * downloads are queued, finishAttachments() waits for them.
+     * @return false if the attachments could not be listed, the attachments of the
+     *         rendered pages are then downloaded as part of rendering them
+     */
+    private boolean syncAttachments() throws Exception {
+        List<Attachment> current;
+        try {
+            current = listAttachments();
+        } catch (Exception e) {
+            System.out.println("(" + spaceKey + ") Could not list the attachments, "
+                               + "downloading them with the rendered pages: " + e.getMessage());
+            return false;
+        }
+        Set<String> listed = new HashSet<String>();
+        List<Attachment> sync = new ArrayList<Attachment>();
+        int changed = checkAttachments(current, listed, sync);
+        int linked = 0;
+        for (Attachment att : sync) {
+            AbstractPage p = pages.get(att.getPageId());
+            if (p == null) {
+                p = blog.get(att.getPageId());
+            }
+            String dirName = getAttachmentDirectory(p);
+            File file = getAttachmentFile(p, att.getFileName());
+            boolean exists = getOutputTree().exists(file);
+            if (getBlobStore().link(ROOT + att.getDownloadPath(), file)) {
+                //same file attached to another page or downloaded by an earlier run
+                attachmentDownloaded(dirName, file, exists);
+                att.setDirectory(dirName);
+                attachmentManifest.put(att.getId(), att);
+                linked++;
+                continue;
+            }
+            PendingDownload pending = new PendingDownload(att, dirName, file, exists);
+            pending.future = getDownloader().submit("attachment", ROOT + att.getDownloadPath(), null,
+                                                    file, att.getSize());
+            pendingDownloads.add(pending);
+            pendingFiles.put(file, pending.future);
+        }
+        attachmentManifest.keySet().retainAll(listed);
+        System.out.println("(" + spaceKey + ") " + listed.size() + " attachments, " 
+                           + pendingDownloads.size() + " to download, " + linked + " from the blob store, "
+                           + changed + " pages to render again");
+        return true;
+    }
+    
+    /**
+     * Compares the listed attachments with the manifest and marks the pages whose
+     * attachments changed, and the pages including them, as modified.  Nothing is
+     * downloaded, so -explain uses it as well.
+     * @param listed gets the ids of the attachments of the exported pages
+     * @param sync gets the attachments that are new or differ from the manifest
+     * @return the number of pages and blog entries that are rendered again because of
+     *         a changed attachment
+     */
+    int checkAttachments(List<Attachment> current, Set<String> listed,
+                         List<Attachment> sync) throws Exception {
+        int changed = 0;
+        boolean blogChanged = false;
+        for (Attachment att : current) {
+            AbstractPage p = pages.get(att.getPageId());
+            if (p == null) {
+                p = blog.get(att.getPageId());
+            }
+            if (p == null || att.getDownloadPath() == null) {
+                //not exported (yet), left out of the manifest so it is picked up later
+                continue;
+            }
+            listed.add(att.getId());
+            p.addAttachment(att.getId(), att.getFileName());
+            
+            String dirName = getAttachmentDirectory(p);
+            File dir = new File(outputDir, dirName);
+            addDashedName(dir, att.getFileName());
+            Attachment old = attachmentManifest.get(att.getId());
+            if (old != null && att.isSameVersion(old) && dirName.equals(old.getDirectory())
+                && getOutputTree().exists(new File(dir, att.getFileName()))) {
+                continue;
+            }
+            sync.add(att);
+            if ((old != null || getOutputTree().exists(new File(dir, att.getFileName())))
+                && attachmentChanged(p, att)) {
+                changed++;
+                blogChanged |= !(p instanceof Page);
+            }
+        }
+        if (changed > 0) {
+            //the pages including the pages that are rendered again
+            invalidateDependents(Collections.<Page>emptyList(), blogChanged);
+        }
+        return changed;
+    }
+    /**
+     * A new version of an attachment a page already had.  With -fingerprint the page links a
+     * copy named after the content of the old version and images carry the size of the old
+     * version, so the page has to be rendered again.
+     * @return true if the page wasn't going to be rendered anyway
+     */
+    private boolean attachmentChanged(AbstractPage p, Attachment att) {
+        if (!fingerprint && Thumbnails.getFormat(att.getFileName()) == null) {
+            return false;
+        }
+        if (p instanceof Page) {
+            Page page = (Page)p;
+            if (modifiedPages.contains(page)) {
+                return false;
+            }
+            invalidations.record(page, Invalidations.ATTACHMENT, att.getFileName(), null);
+            modifiedPages.add(page);
+            return true;
+        }
+        return modifiedBlog.add((BlogEntrySummary)p);
+    }
+    
+    private void finishAttachments() throws Exception {
+        int downloaded = 0;
+        for (PendingDownload pending : pendingDownloads) {
+            Attachment att = pending.attachment;
+            boolean success = true;
+            try {
+                pending.future.get();
+            } catch (ExecutionException e) {
+                System.out.println("(" + spaceKey + ") Could not download " + att.getFileName() 
+                                   + ", trying again: " + e.getCause().getMessage());
+                //resumes from what was downloaded so far
+                success = getDownloader().retry(pending.file);
+            }
+            if (success) {
+                storeBlob(ROOT + att.getDownloadPath(), pending.file);
+                attachmentDownloaded(pending.directory, pending.file, pending.existed);
+                att.setDirectory(pending.directory);
+                attachmentManifest.put(att.getId(), att);
+                downloaded++;
+            }
+            //otherwise it is not in the manifest and is tried again on the next run
+        }
+        pendingDownloads.clear();
+        pendingFiles.clear();
+        saveAttachmentManifest();
+        System.out.println("(" + spaceKey + ") Downloaded " + downloaded + " attachments");
+    }
+    
+    private List<Attachment> listAttachments() throws Exception {
+        final String cql = "space=\"" + spaceKey + "\" and type=attachment";
+        List<Attachment> attachments = new ArrayList<Attachment>();
+        int start = 0;
+        boolean hasNext = true;
+        while (hasNext) {
+            final List<Attachment> results = new ArrayList<Attachment>(REST_PAGE_SIZE);
+            final int offset = start;
+            hasNext = retryPolicy.execute("rest", "attachments", new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    InputStream ins = readEntity(getContentResource().search(cql, null, "version,container",
+                                                                             offset, REST_PAGE_SIZE));
+                    //might be a retry after a partial read
+                    results.clear();
+                    try {
+                        return Attachment.readResults(ins, results);
+                    } finally {
+                        ins.close();
+                    }
+                }
+            });
+            if (results.isEmpty()) {
+                break;
+            }
+            start += results.size();
+            attachments.addAll(results);
+        }
+        return attachments;
+    }
+    
+    private String getAttachmentDirectory(AbstractPage p) {
+        String dirName = p.getPath();
+        return dirName.substring(0, dirName.lastIndexOf(".")) + ".data";
+    }
+    
     private void loadAttachments(AbstractPage p) throws Exception {
         Document doc = DOMUtils.createDocument();
         Element el = doc.createElementNS(SOAPNS, "ns1:getAttachments");
@@ -577,84 +1152,104 @@ public class SiteExporter implements Runnable {
         el.appendChild(el2);
         doc.appendChild(el);
 
-        doc = getDispatch().invoke(doc);
+        doc = invoke(doc);
         el = DOMUtils.getFirstElement(DOMUtils.getFirstElement(doc.getDocumentElement()));
         while (el != null) {
             try {
                 String filename = DOMUtils.getChildContent(el, "fileName");
                 String durl = DOMUtils.getChildContent(el, "url");
                 String aid = DOMUtils.getChildContent(el, "id");
+                String size = DOMUtils.getChildContent(el, "fileSize");
                 
                 p.addAttachment(aid, filename);
-                
-                String dirName = p.getPath();
-                dirName = dirName.substring(0, dirName.lastIndexOf(".")) + ".data";
-                File file = new File(outputDir, dirName);
-                if (!file.exists()) {
-                    callSvn("mkdir", file.getAbsolutePath());
-                    file.mkdirs();
-                }
-                file = new File(file, filename);
-                boolean exists = file.exists();
-                FileOutputStream out = new FileOutputStream(file);
-                URL url = new URL(durl);
-                InputStream ins = url.openStream();
-                IOUtils.copy(ins, out);
-                out.close();
-                ins.close();
-                if (!exists) {
-                    callSvn("add", file.getAbsolutePath());
-                    svnCommitMessage.append("Added: " + dirName + "/" + file.getName() + "\n");
-                } else {
-                    svnCommitMessage.append("Modified: " + dirName + "/" + file.getName() + "\n");
-                }
-                if (filename.indexOf(' ') != -1) {
-                    filename = filename.replace(' ', '-');
-                    file = new File(outputDir, dirName);
-                    File f2 = new File(file, filename);
-                    exists = f2.exists();
-                    out = new FileOutputStream(f2);
-                    url = new URL(durl);
-                    ins = url.openStream();
-                    IOUtils.copy(ins, out);
-                    out.close();
-                    ins.close();
-                    if (!exists) {
-                        callSvn("add", f2.getAbsolutePath());
-                        svnCommitMessage.append("Added: " + dirName + "/" + f2.getName() + "\n");
-                    } else {
-                        svnCommitMessage.append("Modified: " + dirName + "/" + f2.getName() + "\n");
-                    }
+                File file = getAttachmentFile(p, filename);
+                addDashedName(file.getParentFile(), filename);
+                boolean exists = getOutputTree().exists(file);
+                long expectedSize = size == null ? -1 : Long.parseLong(size);
+                try {
+                    download("attachment", durl, false, file, expectedSize);
+                } catch (Exception e) {
+                    failedDownloads.add(new FailedDownload("attachment", durl, false, file, expectedSize,
+                                                           getAttachmentDirectory(p), exists));
+                    throw e;
                 }
+                attachmentDownloaded(getAttachmentDirectory(p), file, exists);
             } catch (Exception e) {
                 e.printStackTrace();
             }
             el = DOMUtils.getNextElement(el);
         }
     }
+    
+    /**
+     * Creates the .data directory of the page if needed.
+     */
+    private File getAttachmentFile(AbstractPage p, String filename) throws Exception {
+        File dir = new File(outputDir, getAttachmentDirectory(p));
+        if (!getOutputTree().exists(dir)) {
+            callSvn("mkdir", dir.getAbsolutePath());
+            getOutputTree().mkdirs(dir);
+        }
+        return new File(dir, filename);
+    }
+    
+    private void attachmentDownloaded(String dirName, File file, boolean exists) throws Exception {
+        getOutputTree().created(file);
+        writtenAttachments.add(file);
+        if (!exists) {
+            callSvn("add", file.getAbsolutePath());
+            svnCommitMessage.append("Added: " + dirName + "/" + file.getName() + "\n");
+        } else {
+            svnCommitMessage.append("Modified: " + dirName + "/" + file.getName() + "\n");
+        }
+        if (file.getName().indexOf(' ') != -1) {
+            //a link to the same blob rather than downloading it again
+            File f2 = new File(file.getParentFile(), file.getName().replace(' ', '-'));
+            exists = getOutputTree().exists(f2);
+            getBlobStore().copy(file, f2);
+            getOutputTree().created(f2);
+            if (!exists) {
+                callSvn("add", f2.getAbsolutePath());
+                svnCommitMessage.append("Added: " + dirName + "/" + f2.getName() + "\n");
+            } else {
+                svnCommitMessage.append("Modified: " + dirName + "/" + f2.getName() + "\n");
+            }
+        }
+    }
     String loadUserImage(AbstractPage p, String href) throws Exception {
         return loadPageBinaryData(p, href, "userimage", true);
     }
     String loadThumbnail(AbstractPage p, String href) throws Exception {
+        if (localThumbnails) {
+            File original = getThumbnailOriginal(href);
+            if (original != null && fingerprint) {
+                //the thumbnail is needed now to fingerprint the link
+                String dirName = getBinaryDataDirectory(p, "thumbs");
+                File file = getBinaryDataFile(p, href, "thumbs");
+                boolean exists = getOutputTree().exists(file);
+                waitForDownload(original);
+                if (exists && isThumbnailCurrent(original, file)) {
+                    return file.getName();
+                }
+                if (original.exists() && Thumbnails.scale(original, file)) {
+                    binaryDataWritten(dirName, file, exists);
+                    return file.getName();
+                }
+            } else if (original != null) {
+                //scaled once the attachments are downloaded, see finishThumbnails()
+                String dirName = getBinaryDataDirectory(p, "thumbs");
+                File file = getBinaryDataFile(p, href, "thumbs");
+                pendingThumbnailFiles.add(file);
+                pendingThumbnails.add(new PendingThumbnail(p, href, original, dirName, file,
+                                                           getOutputTree().exists(file)));
+                return file.getName();
+            }
+        }
         return loadPageBinaryData(p, href, "thumbs", false);
     }
     String loadPageBinaryData(AbstractPage p, String href, String type, boolean auth) throws Exception {
-        String filename = href.substring(href.lastIndexOf('/') + 1);
-        filename = filename.replace(' ', '_');
-        if (filename.indexOf('?') != -1) {
-            filename = filename.substring(0, filename.indexOf('?'));
-        }
-        
-        String dirName = p.getPath();
-        dirName = dirName.substring(0, dirName.lastIndexOf(".")) + "." + type;
-        File file = new File(outputDir, dirName);
-        if (!file.exists()) {
-            callSvn("mkdir", file.getAbsolutePath());
-            file.mkdirs();
-        }
-        file = new File(file, filename);
-        boolean exists = file.exists();
-        FileOutputStream out = new FileOutputStream(file);
+        File file = getBinaryDataFile(p, href, type);
+        boolean exists = getOutputTree().exists(file);
         if (auth) {
             if (href.indexOf('?') != -1) {
                 href += "&os_authType=basic";
@@ -662,47 +1257,415 @@ public class SiteExporter implements Runnable {
                 href += "?os_authType=basic";
             }
         }
-        URL url = new URL(HOST + href);
-        URLConnection con = url.openConnection();
-        if (auth) {
-            con.addRequestProperty("Authorization", getBasicAuthHeader());
+        try {
+            download(type, HOST + href, auth, file, -1);
+        } catch (Exception e) {
+            failedDownloads.add(new FailedDownload(type, HOST + href, auth, file, -1,
+                                                   getBinaryDataDirectory(p, type), exists));
+            throw e;
+        }
+        binaryDataWritten(getBinaryDataDirectory(p, type), file, exists);
+        return file.getName();
+    }
+    private String getBinaryDataDirectory(AbstractPage p, String type) {
+        String dirName = p.getPath();
+        return dirName.substring(0, dirName.lastIndexOf(".")) + "." + type;
+    }
+    /**
+     * Creates the .thumbs or .userimage directory of the page if needed.
+     */
+    private File getBinaryDataFile(AbstractPage p, String href, String type) throws Exception {
+        String filename = href.substring(href.lastIndexOf('/') + 1);
+        filename = filename.replace(' ', '_');
+        if (filename.indexOf('?') != -1) {
+            filename = filename.substring(0, filename.indexOf('?'));
+        }
+        
+        File dir = new File(outputDir, getBinaryDataDirectory(p, type));
+        if (!getOutputTree().exists(dir)) {
+            callSvn("mkdir", dir.getAbsolutePath());
+            getOutputTree().mkdirs(dir);
         }
-        InputStream ins = con.getInputStream();
-        IOUtils.copy(ins, out);
-        out.close();
-        ins.close();
+        return new File(dir, filename);
+    }
+    private void binaryDataWritten(String dirName, File file, boolean exists) throws Exception {
+        getOutputTree().created(file);
         if (!exists) {
             callSvn("add", file.getAbsolutePath());
             svnCommitMessage.append("Added: " + dirName + "/" + file.getName() + "\n");                
         } else {
             svnCommitMessage.append("Modified: " + dirName + "/" + file.getName() + "\n");
         }
-        return file.getName();
     }
-    public String getBasicAuthHeader() {
-        String userAndPass = userName + ":" + password;
-        try {
-            return "Basic " + Base64Utility.encode(userAndPass.getBytes("ISO-8859-1"));
-        } catch (UnsupportedEncodingException e) {
-            return "Basic";
+    /**
+     * @return where the attachment a thumbnail link was made from is downloaded to or null
+     *         if it belongs to a page of another space
+     */
+    private File getThumbnailOriginal(String href) throws Exception {
+        String path = href;
+        if (path.indexOf('?') != -1) {
+            path = path.substring(0, path.indexOf('?'));
         }
-    }
+        int idx = path.indexOf("/thumbnails/");
+        if (idx == -1) {
+            return null;
+        }
+        String[] parts = path.substring(idx + "/thumbnails/".length()).split("/");
+        if (parts.length != 2) {
+            return null;
+        }
+        AbstractPage owner = pages.get(parts[0]);
+        if (owner == null) {
+            owner = blog.get(parts[0]);
+        }
+        if (owner == null) {
+            return null;
+        }
+        File dir = new File(outputDir, getAttachmentDirectory(owner));
+        return new File(dir, URLDecoder.decode(parts[1], "UTF-8"));
+    }
+    /**
+     * With -fingerprint, links to attachments, thumbnails and user images point to a copy of
+     * the file with a hash of its content in the name.  A new version of the file gets a new
+     * name, so the copies are listed in the cache manifest as immutable.  The copies of
+     * older versions are kept on purpose, see CacheManifest.
+     * @param dirName the directory of the file, relative to the directory of the page
+     * @param name the file name as written into the link
+     * @return the name to link to, name itself if the file isn't there
+     */
+    String fingerprint(AbstractPage p, String dirName, String name) {
+        if (!fingerprint) {
+            return name;
+        }
+        String plain = name.indexOf('?') == -1 ? name : name.substring(0, name.indexOf('?'));
+        File dir = new File(outputDir, p.getDirectory() + dirName);
+        //links to attachments with spaces point to the dash named copy, which is only
+        //brought up to date in finishAttachments(), so the attachment itself is hashed instead
+        File source = getDashedOriginal(new File(dir, plain));
+        try {
+            waitForDownload(source);
+            if (!source.exists() || source.isDirectory()) {
+                return name;
+            }
+            String hash = BlobStore.hash(source).substring(0, FINGERPRINT_LENGTH);
+            int idx = plain.lastIndexOf('.');
+            String fpName = idx > 0 ? plain.substring(0, idx) + "." + hash + plain.substring(idx)
+                : plain + "." + hash;
+            File fpFile = new File(dir, fpName);
+            if (!getOutputTree().exists(fpFile)) {
+                getBlobStore().copy(source, fpFile);
+                binaryDataWritten(p.getDirectory() + dirName, fpFile, false);
+            }
+            String path = rootOutputDir.getAbsoluteFile().toPath().normalize()
+                .relativize(fpFile.getAbsoluteFile().toPath().normalize()).toString();
+            cacheManifest.addImmutable(path.replace(File.separatorChar, '/'));
+            return fpName;
+        } catch (Exception e) {
+            System.out.println("Could not fingerprint " + dirName + "/" + plain + ": " + e.getMessage());
+            return name;
+        }
+    }
+    /**
+     * @return the size of an image in the output tree or null if it isn't there (yet), an
+     *         attachment that is still downloading or a thumbnail that is still to be scaled
+     *         might not have that size anymore
+     */
+    Dimension getImageSize(File file) {
+        //links to attachments with spaces point to the dash named copy of the download
+        if (pendingFiles.containsKey(file) || pendingFiles.containsKey(getDashedOriginal(file))
+            || pendingThumbnailFiles.contains(file)) {
+            return null;
+        }
+        return ImageSizes.get(file);
+    }
+    /**
+     * Remembers which attachment the dash named copy of an attachment with spaces in its
+     * name is made of.  A name can have dashes and spaces, so it can't be worked out from
+     * the dash name.
+     */
+    private void addDashedName(File dir, String filename) {
+        if (filename.indexOf(' ') != -1) {
+            //the attachment as the queued downloads know it, only the link is normalized
+            dashedAttachments.put(normalize(new File(dir, filename.replace(' ', '-'))),
+                                  new File(dir, filename));
+        }
+    }
+    /**
+     * @return the attachment the file is the dash named copy of or the file itself
+     */
+    File getDashedOriginal(File file) {
+        File original = dashedAttachments.get(normalize(file));
+        return original == null ? file : original;
+    }
+    private static File normalize(File file) {
+        return file.getAbsoluteFile().toPath().normalize().toFile();
+    }
+    private void waitForDownload(File file) throws InterruptedException {
+        Future<Long> pending = pendingFiles.get(file);
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (ExecutionException e) {
+                //retried after rendering, the link stays as it is
+            }
+        }
+    }
+    /**
+     * Scales the attachments the rendered pages show thumbnails of on the CPU pool.  Thumbnails
+     * that can't be made locally (the attachment failed to download, isn't an image ImageIO
+     * can read...) are downloaded from confluence instead.
+     */
+    private void finishThumbnails() throws Exception {
+        List<PendingThumbnail> thumbnails = new ArrayList<PendingThumbnail>();
+        int current = 0;
+        PendingThumbnail pending = pendingThumbnails.poll();
+        while (pending != null) {
+            if (pending.existed && isThumbnailCurrent(pending.original, pending.file)) {
+                //the same thumbnail as last time, nothing to write
+                current++;
+            } else {
+                thumbnails.add(pending);
+            }
+            pending = pendingThumbnails.poll();
+        }
+        pendingThumbnailFiles.clear();
+        if (thumbnails.isEmpty()) {
+            return;
+        }
+        for (final PendingThumbnail thumbnail : thumbnails) {
+            thumbnail.future = getThumbnailExecutor().submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    return thumbnail.original.exists()
+                        && Thumbnails.scale(thumbnail.original, thumbnail.file);
+                }
+            });
+        }
+        int scaled = 0;
+        for (PendingThumbnail thumbnail : thumbnails) {
+            boolean success;
+            try {
+                success = thumbnail.future.get();
+            } catch (ExecutionException e) {
+                System.out.println("(" + spaceKey + ") Could not scale " + thumbnail.original.getName() 
+                                   + ": " + e.getCause().getMessage());
+                success = false;
+            }
+            if (success) {
+                binaryDataWritten(thumbnail.directory, thumbnail.file, thumbnail.existed);
+                scaled++;
+                continue;
+            }
+            try {
+                loadPageBinaryData(thumbnail.page, thumbnail.href, "thumbs", false);
+            } catch (Exception ex) {
+                System.out.println("Could not download thumbnail " + thumbnail.href 
+                                   + " linked from " + thumbnail.page.getTitle());                    
+            }
+        }
+        System.out.println("(" + spaceKey + ") Generated " + scaled + " of " + thumbnails.size()
+                           + " thumbnails, " + current + " were up to date");
+    }
+    /**
+     * The thumbnail was scaled from the attachment as it is now if it was written after it
+     * and the attachment hasn't been replaced since.
+     */
+    private boolean isThumbnailCurrent(File original, File thumbnail) {
+        if (writtenAttachments.contains(original)) {
+            return false;
+        }
+        long modified = original.lastModified();
+        return modified != 0 && thumbnail.lastModified() > modified;
+    }
+    /**
+     * Tries the downloads that failed while rendering once more, before the commit.  The
+     * files are added to svn and the commit message like the ones downloaded the first
+     * time, otherwise they would sit unversioned in the working copy.
+     */
+    private void retryFailedDownloads() {
+        int failed = 0;
+        int total = 0;
+        FailedDownload d = failedDownloads.poll();
+        while (d != null) {
+            total++;
+            try {
+                download(d.operation, d.href, d.auth, d.file, d.expectedSize);
+                if ("attachment".equals(d.operation)) {
+                    attachmentDownloaded(d.directory, d.file, d.existed);
+                } else {
+                    binaryDataWritten(d.directory, d.file, d.existed);
+                }
+            } catch (Exception e) {
+                System.out.println("(" + spaceKey + ") Could not download " + d.href + ": " + e.getMessage());
+                failed++;
+            }
+            d = failedDownloads.poll();
+        }
+        if (total > 0) {
+            System.out.println("(" + spaceKey + ") Retried " + total + " failed downloads, " 
+                               + failed + " still failing");
+        }
+    }
+    /**
+     * The same user image or thumbnail shows up on lots of pages.  It is fetched once per
+     * run, the other pages get a link to the same blob.  Across runs the blob is reused
+     * if the URL is versioned or confluence says it has not been modified.
+     */
+    private void download(final String operation, final String href, final boolean auth, final File file,
+                          final long expectedSize) throws Exception {
+        final String key = normalizeHref(href);
+        if (getBlobStore().link(key, file)) {
+            return;
+        }
+        FutureTask<String> load = new FutureTask<String>(new Callable<String>() {
+            public String call() throws Exception {
+                return fetchBlob(operation, href, key, auth, file, expectedSize);
+            }
+        });
+        FutureTask<String> old = binaryLoads.putIfAbsent(key, load);
+        if (old == null) {
+            load.run();
+        } else {
+            load = old;
+        }
+        String hash;
+        try {
+            hash = load.get();
+        } catch (ExecutionException e) {
+            //let the next page try again
+            binaryLoads.remove(key, load);
+            throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+        }
+        if (old != null) {
+            getBlobStore().linkBlob(hash, file);
+        }
+    }
+    private String fetchBlob(String operation, String href, String key, boolean auth, File file,
+                             long expectedSize) throws Exception {
+        BlobStore blobs = getBlobStore();
+        Downloader.Validators validators = blobs.getValidators(key);
+        if (validators == null) {
+            validators = new Downloader.Validators();
+        }
+        getDownloader().download(operation, href, auth ? getBasicAuthHeader() : null, file, expectedSize,
+                                 validators);
+        String hash = blobs.getHash(key);
+        if (validators.isNotModified() && hash != null) {
+            blobs.linkBlob(hash, file);
+            return hash;
+        }
+        return blobs.store(key, file, validators);
+    }
+    static String normalizeHref(String href) {
+        int idx = href.indexOf('#');
+        if (idx != -1) {
+            href = href.substring(0, idx);
+        }
+        //the authentication type doesn't change what is downloaded
+        href = href.replace("?os_authType=basic&", "?").replace("&os_authType=basic", "");
+        if (href.endsWith("?os_authType=basic")) {
+            href = href.substring(0, href.length() - "?os_authType=basic".length());
+        }
+        return href;
+    }
+    private void storeBlob(String href, File file) {
+        try {
+            getBlobStore().store(href, file);
+        } catch (IOException e) {
+            //the file is fine where it is, it just isn't shared
+            System.out.println("Could not add " + file + " to the blob store: " + e.getMessage());
+        }
+    }
+    public String getBasicAuthHeader() {
+        String userAndPass = userName + ":" + password;
+        try {
+            return "Basic " + Base64Utility.encode(userAndPass.getBytes("ISO-8859-1"));
+        } catch (UnsupportedEncodingException e) {
+            return "Basic";
+        }
+    }
     public Page findPage(String title) throws Exception {
-        return (Page) findByTitle(title, pages.values());
+        return (Page)pageTitles.get(title);
     }
     
-    public Page findPageByURL(String url) throws Exception {
-        return (Page) findByURL(url, pages.values());
+    /**
+     * Adds a page or blog entry that was just put into the pages or blog map to the title
+     * index and the link index.
+     * @param old the page or blog entry it replaced or null
+     */
+    void index(AbstractPage page, AbstractPage old) {
+        ConcurrentHashMap<String, AbstractPage> titles = page instanceof Page ? pageTitles : blogTitles;
+        if (old != null && old.getTitle() != null && titles.remove(old.getTitle(), old)
+            && !old.getTitle().equals(page.getTitle())) {
+            retitle(titles, old);
+        }
+        if (page.getTitle() != null) {
+            titles.put(page.getTitle(), page);
+        }
+        pageIndex.add(this, page);
+        if (page instanceof Page) {
+            Page p = (Page)page;
+            Page oldPage = (Page)old;
+            if (oldPage != null) {
+                removeChild(oldPage);
+                dependencies.remove(oldPage);
+            }
+            addChild(p);
+            dependencies.add(p);
+            if (oldPage == null || !equals(oldPage.getTitle(), p.getTitle())
+                || !equals(oldPage.getParentId(), p.getParentId())) {
+                invalidateBreadcrumbs(p.getId());
+            }
+        }
     }
     
-    public Page findPageByID(String id) {
-        for (Page p : pages.values()) {
-            if (p.getId().equals(id)) {
-                return p;
+    private static boolean equals(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+    
+    /**
+     * Removes a page or blog entry that was just removed from the pages or blog map.
+     */
+    void unindex(AbstractPage page) {
+        pageIndex.remove(page);
+        if (page instanceof Page) {
+            removeChild((Page)page);
+            dependencies.remove((Page)page);
+            invalidateBreadcrumbs(page.getId());
+        }
+        if (page.getTitle() == null) {
+            return;
+        }
+        ConcurrentHashMap<String, AbstractPage> titles = page instanceof Page ? pageTitles : blogTitles;
+        if (titles.remove(page.getTitle(), page)) {
+            retitle(titles, page);
+        }
+    }
+    
+    /**
+     * Hands the title of a page or blog entry that was renamed or removed over to another
+     * one with the same title, blog entries on different days can have the same title.
+     */
+    private void retitle(ConcurrentHashMap<String, AbstractPage> titles, AbstractPage page) {
+        Collection<? extends AbstractPage> all = page instanceof Page ? pages.values() : blog.values();
+        for (AbstractPage p : all) {
+            if (page.getTitle().equals(p.getTitle())) {
+                titles.putIfAbsent(p.getTitle(), p);
+                break;
             }
         }
+    }
+    
+    public Page findPageByURL(String url) throws Exception {
+        PageIndex.Entry entry = pageIndex.findByURL(url);
+        if (entry != null && entry.getExporter() == this && entry.getPage() instanceof Page) {
+            return (Page)entry.getPage();
+        }
         return null;
     }
+    
+    public Page findPageByID(String id) {
+        return pages.get(id);
+    }
 
     public String breadcrumbs(BlogEntrySummary page) {
         StringBuffer buffer = new StringBuffer();
@@ -739,38 +1702,90 @@ public class SiteExporter implements Runnable {
     }
     
     public String breadcrumbs(Page page) {
-        StringBuffer buffer = new StringBuffer();
-        List<Page> p = new LinkedList<Page>();
-        String parentId = page.getParentId();
-        Page parent = pages.get(parentId);
-        while (parent != null) {
-            p.add(0, parent);
-            parentId = parent.getParentId();
-            parent = pages.get(parentId);
-        }
-        if (breadCrumbRoot != null) {
-            buffer.append("<a href=\"");
-            buffer.append("index.html");
-            buffer.append("\">");
-            buffer.append(breadCrumbRoot);
-            buffer.append("</a>");
+        StringBuilder buffer = new StringBuilder(getParentTrail(page));
+        appendLink(buffer, page);
+        return buffer.toString();
+    }
+    
+    /**
+     * The trail of links down to (and including) a page is memoized as it's shared by all
+     * the pages below it.  It's dropped by index()/unindex() when the title or parent of
+     * the page or of any page above it changes.
+     */
+    private String getTrail(Page page) {
+        String trail = breadcrumbTrails.get(page.getId());
+        if (trail == null) {
+            StringBuilder buffer = new StringBuilder(getParentTrail(page));
+            appendLink(buffer, page);
             buffer.append(SEPARATOR);
+            trail = buffer.toString();
+            breadcrumbTrails.put(page.getId(), trail);
         }
-        for (Page p2 : p) {
-            buffer.append("<a href=\"");
-            buffer.append(p2.createFileName());
-            buffer.append("\">");
-            buffer.append(p2.getTitle());
-            buffer.append("</a>");
-            buffer.append(SEPARATOR);
+        return trail;
+    }
+    
+    private String getParentTrail(Page page) {
+        Page parent = page.getParentId() == null ? null : pages.get(page.getParentId());
+        if (parent != null && parent != page) {
+            return getTrail(parent);
         }
+        if (breadCrumbRoot != null) {
+            return "<a href=\"index.html\">" + breadCrumbRoot + "</a>" + SEPARATOR;
+        }
+        return "";
+    }
+    
+    private static void appendLink(StringBuilder buffer, Page page) {
         buffer.append("<a href=\"");
         buffer.append(page.createFileName());
         buffer.append("\">");
         buffer.append(page.getTitle());
         buffer.append("</a>");
-
-        return buffer.toString();
+    }
+    
+    /**
+     * A trail is only built once the trail of the parent is, so if a page has no trail
+     * none of the pages below it have one either.
+     */
+    private void invalidateBreadcrumbs(String id) {
+        if (breadcrumbTrails.remove(id) != null) {
+            for (Page child : getChildPages(id)) {
+                invalidateBreadcrumbs(child.getId());
+            }
+        }
+    }
+    
+    private void addChild(Page page) {
+        if (page.getParentId() == null) {
+            return;
+        }
+        ConcurrentHashMap<String, Page> children = childPages.get(page.getParentId());
+        if (children == null) {
+            children = new ConcurrentHashMap<String, Page>();
+            ConcurrentHashMap<String, Page> old = childPages.putIfAbsent(page.getParentId(), children);
+            if (old != null) {
+                children = old;
+            }
+        }
+        children.put(page.getId(), page);
+    }
+    
+    private void removeChild(Page page) {
+        if (page.getParentId() == null) {
+            return;
+        }
+        ConcurrentHashMap<String, Page> children = childPages.get(page.getParentId());
+        if (children != null) {
+            children.remove(page.getId(), page);
+        }
+    }
+    
+    private Collection<Page> getChildPages(String id) {
+        ConcurrentHashMap<String, Page> children = id == null ? null : childPages.get(id);
+        if (children == null) {
+            return Collections.emptyList();
+        }
+        return children.values();
     }
     
     public String getPageContent(String title, String divId) throws Exception {
@@ -798,9 +1813,8 @@ public class SiteExporter implements Runnable {
         return p.getContent();
     }
     protected String loadPageContent(Page p, String divId, String divCls) throws Exception {
-        String content = renderPage(p);
-        content = updateContentLinks(p, content, divId, 
-                                     divCls == null && divId == null ? mainDivClass : divCls);
+        String content = renderPage(p, divId, 
+                                    divCls == null && divId == null ? mainDivClass : divCls);
         if (divId == null) {
             p.setContent(content);
         } else {
@@ -809,26 +1823,69 @@ public class SiteExporter implements Runnable {
         return content;
     }
 
-    private String renderPage(AbstractPage p) throws ParserConfigurationException, IOException {
-        ContentResource content = getContentResource();
-        InputStream ins = content.getContentById(p.getId(), null, null, "body.export_view")
-                .readEntity(InputStream.class);
-        
-        JsonParser parser = new JsonFactory().createParser(ins);
-        JsonToken tok = parser.nextToken();
-        boolean inExportView = false;
-        while (tok != null) {
-            if (tok == JsonToken.FIELD_NAME) {
-                if (parser.getCurrentName().equals("export_view")) {
-                    inExportView = true;
+    /**
+     * The template (banner, navigation...), the includes rendered by the PageManager and
+     * the page itself can ask for the same content at the same time.  Those requests share
+     * one fetch and one rewritten result.  The links are rewritten relative to the output
+     * directory of the exporter and the page's directory and wrapped in the given div, so
+     * those are part of the key as well.
+     */
+    private String renderPage(final AbstractPage p, final String divId,
+                              final String divCls) throws Exception {
+        String key = p.getId() + "@" + p.getVersion() + ":" + outputDir.getAbsolutePath() + ":"
+            + p.getDirectory() + ":" + divId + ":" + divCls;
+        FutureTask<String> render = new FutureTask<String>(new Callable<String>() {
+            public String call() throws Exception {
+                return fetchAndRenderPage(p, divId, divCls);
+            }
+        });
+        FutureTask<String> inFlight = renderLoads.putIfAbsent(key, render);
+        if (inFlight == null) {
+            try {
+                render.run();
+            } finally {
+                //single flight only, the result is cached by the caller if needed
+                renderLoads.remove(key, render);
+            }
+            inFlight = render;
+        }
+        try {
+            return inFlight.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+        }
+    }
+
+    private String fetchAndRenderPage(AbstractPage p, String divId, String divCls) throws Exception {
+        return updateContentLinks(p, new StringReader(readExportView(p)), divId, divCls);
+    }
+
+    /**
+     * The export_view is read to the end within the retry, so a connection that fails
+     * half way through the body is retried as well.  Rewriting the links waits for
+     * downloads, thumbnails and fingerprints, a response left open for that long would
+     * count against confluence and could run into its idle timeout.
+     */
+    private String readExportView(final AbstractPage p) throws Exception {
+        String body = retryPolicy.execute("rest", "export_view", new Callable<String>() {
+            public String call() throws Exception {
+                ContentResource content = getContentResource();
+                InputStream ins = readEntity(content.getContentById(p.getId(), null, null, 
+                                                                    "body.export_view"));
+                try {
+                    Reader body = JsonStringReader.open(ins, "<div id='ConfluenceContent'>", "</div>",
+                                                        "body", "export_view", "value");
+                    return body == null ? null : IOUtils.toString(body);
+                } finally {
+                    ins.close();
                 }
-            } else if (tok == JsonToken.VALUE_STRING && inExportView && parser.getCurrentName().equals("value")) {
-                return "<div id='ConfluenceContent'>" + parser.getText() + "</div>";
             }
-            tok = parser.nextToken();
+        });
+        if (body == null) {
+            System.out.println("No text for page \"" + p.getTitle() + "\"");
+            return "";
         }
-        System.out.println("No text for page \"" + p.getTitle() + "\"");
-        return "";
+        return body;
     }
 
     public String unwrap(String v) throws Exception {
@@ -838,7 +1895,20 @@ public class SiteExporter implements Runnable {
         return v.trim().replaceFirst("^<div[^>]*>", "").replaceFirst("</div>$", "");
     }
 
-    private static synchronized void doLogin() throws Exception {
+    /**
+     * Uses its own lock rather than the class lock, the login call needs a request
+     * slot which may be held by a thread waiting for getDispatch().
+     */
+    private static void doLogin() throws Exception {
+        if (loginToken != null) {
+            return;
+        }
+        synchronized (LOGIN_LOCK) {
+            doLoginLocked();
+        }
+    }
+    
+    private static void doLoginLocked() throws Exception {
         if (loginToken == null) {
             Document doc = DOMUtils.createDocument();
             Element el = doc.createElementNS(SOAPNS, "ns1:login");
@@ -860,7 +1930,7 @@ public class SiteExporter implements Runnable {
                 el2.setTextContent(password);
             }
             doc.appendChild(el);
-            doc = getDispatch().invoke(doc);
+            doc = invoke(doc);
             loginToken = doc.getDocumentElement().getFirstChild().getTextContent();
         }
     }
@@ -877,16 +1947,38 @@ public class SiteExporter implements Runnable {
                 
                 for (Page p : pages.values()) {
                     p.setExporter(this);
+                    index(p, null);
+                }
+                for (BlogEntrySummary entry : blog.values()) {
+                    index(entry, null);
                 }
             } catch (Throwable t) {
                 //invalid cache, punt
                 pages.clear();
                 blog.clear();
+                pageTitles.clear();
+                blogTitles.clear();
+                childPages.clear();
+                breadcrumbTrails.clear();
+                dependencies.clear();
+                pageIndex.removeAll(this);
             }
         }
     }
     
     public int getBlogVersion(String pageId) throws Exception {
+        String version = DOMUtils.getChildContent(getBlogEntry(pageId), "version");
+        return Integer.parseInt(version);
+    }
+    
+    public BlogEntrySummary loadBlogEntry(String pageId) throws Exception {
+        Element el = getBlogEntry(pageId);
+        BlogEntrySummary entry = new BlogEntrySummary(el);
+        entry.setVersion(Integer.parseInt(DOMUtils.getChildContent(el, "version")));
+        return entry;
+    }
+    
+    private Element getBlogEntry(String pageId) throws Exception {
         Document doc = DOMUtils.newDocument();
         Element el = doc.createElementNS(SOAPNS, "ns1:getBlogEntry");
         Element el2 = doc.createElement("in0");
@@ -896,12 +1988,9 @@ public class SiteExporter implements Runnable {
         el.appendChild(el2);
         el2.setTextContent(pageId);
         doc.appendChild(el);
-        doc = getDispatch().invoke(doc);
+        doc = invoke(doc);
         
-        Node nd = doc.getDocumentElement().getFirstChild();
-        
-        String version = DOMUtils.getChildContent(nd, "version");
-        return Integer.parseInt(version);
+        return DOMUtils.getFirstElement(doc.getDocumentElement());
     }
     
     public void loadBlog() throws Exception {
@@ -915,16 +2004,26 @@ public class SiteExporter implements Runnable {
         el.appendChild(el2);
         el2.setTextContent(spaceKey);
         doc.appendChild(el);
-        doc = getDispatch().invoke(doc);
+        doc = invoke(doc);
         
         Map<String, BlogEntrySummary> oldBlog = new ConcurrentHashMap<String, BlogEntrySummary>(blog);
+        Map<String, Integer> versions;
+        try {
+            versions = loadBlogVersions();
+        } catch (Exception e) {
+            System.out.println("(" + spaceKey + ") Could not list the blog versions, "
+                               + "loading them one by one: " + e.getMessage());
+            versions = Collections.emptyMap();
+        }
         
         Node nd = doc.getDocumentElement().getFirstChild().getFirstChild();
         while (nd != null) {
             if (nd instanceof Element) {
                 BlogEntrySummary entry = new BlogEntrySummary((Element)nd);
-                entry.setVersion(getBlogVersion(entry.id));
+                Integer version = versions.get(entry.getId());
+                entry.setVersion(version == null ? getBlogVersion(entry.id) : version);
                 BlogEntrySummary oldEntry = blog.put(entry.getId(), entry);
+                index(entry, oldEntry);
                 System.out.println("Found Blog entry for " + entry.getTitle() + " " + entry.getPath());
 
                 if (oldEntry == null || oldEntry.getVersion() != entry.getVersion()) {
@@ -941,150 +2040,344 @@ public class SiteExporter implements Runnable {
         for (String id : oldBlog.keySet()) {
             //these pages have been deleted
             BlogEntrySummary p = blog.remove(id);
+            unindex(p);
             File file = new File(outputDir, p.getPath());
-            if (file.exists()) {
+            if (!explain && getOutputTree().exists(file)) {
                 callSvn("rm", file.getAbsolutePath());
                 svnCommitMessage.append("Deleted: " + file.getName() + "\n");                
-            }
-            if (file.exists()) {
+                //svn rm already deleted it when running with -svn
                 file.delete();
-            }            
+                getOutputTree().deleted(file);
+            }
+        }
+    }
+        
+    /**
+     * BlogEntrySummary has no version, so rather than a getBlogEntry call per entry
+     * the versions of all the blog posts are listed in bulk via the REST API.
+     */
+    private Map<String, Integer> loadBlogVersions() throws Exception {
+        Map<String, Integer> versions = new HashMap<String, Integer>();
+        int start = 0;
+        boolean hasNext = true;
+        while (hasNext) {
+            List<ContentSummary> summaries = new ArrayList<ContentSummary>(REST_PAGE_SIZE);
+            hasNext = loadSummaries("blogpost", null, start, summaries);
+            if (summaries.isEmpty()) {
+                break;
+            }
+            start += summaries.size();
+            for (ContentSummary summary : summaries) {
+                versions.put(summary.getId(), summary.getVersion());
+            }
         }
+        return versions;
     }
         
     public BlogEntrySummary findBlogEntry(String title) throws Exception {
-        return (BlogEntrySummary) findByTitle(title, blog.values());
+        return (BlogEntrySummary)blogTitles.get(title);
     }
     
     public BlogEntrySummary findBlogEntryByURL(String url) throws Exception {
-        return (BlogEntrySummary) findByURL(url, blog.values());
-    }
-    
-    private static AbstractPage findByURL(String url, Collection<? extends AbstractPage> pages) throws Exception {
-        for (AbstractPage p : pages) {
-            if (p.getURL().endsWith(url)) {
-                return p;
-            }
+        PageIndex.Entry entry = pageIndex.findByURL(url);
+        if (entry != null && entry.getExporter() == this && entry.getPage() instanceof BlogEntrySummary) {
+            return (BlogEntrySummary)entry.getPage();
         }
         return null;
     }
     
-    private static AbstractPage findByTitle(String title, Collection<? extends AbstractPage> pages) throws Exception {
-        for (AbstractPage p : pages) {
-            if (title.equals(p.getTitle())) {
-                return p;
-            }
-        }
-        return null;
-    }
     
     public void loadPages() throws Exception {
-        Document doc = DOMUtils.newDocument();
-        Element el = doc.createElementNS(SOAPNS, "ns1:getPages");
-        Element el2 = doc.createElement("in0");
-        el.appendChild(el2);
-        el2.setTextContent(loginToken);
-        el2 = doc.createElement("in1");
-        el.appendChild(el2);
-        el2.setTextContent(spaceKey);
-        doc.appendChild(el);
-        doc = getDispatch().invoke(doc);
-        
         Set<String> allPages = new CopyOnWriteArraySet<String>(pages.keySet());
         Set<Page> newPages = new CopyOnWriteArraySet<Page>();
         List<Future<?>> futures = new ArrayList<Future<?>>(allPages.size());
         
-        // XMLUtils.printDOM(doc.getDocumentElement());
-
-        Node nd = doc.getDocumentElement().getFirstChild().getFirstChild();
-        while (nd != null) {
-            if (nd instanceof Element) {
-                futures.add(loadPage((Element)nd, allPages, newPages));
-            }
-            nd = nd.getNextSibling();
+        if (restDiscovery) {
+            discoverPages(allPages, newPages, futures);
+        } else {
+            streamPages(allPages, newPages, futures);
         }
         for (Future<?> f : futures) {
             //wait for all the pages to be done
             f.get();
         }
-        for (Page p : newPages) {
-            //pages have been added, need to check
-            checkForChildren(p);
-        }
+        //pages have been added or deleted, need to check the pages listing their parents
+        List<Page> structural = new ArrayList<Page>(newPages);
         for (String id : allPages) {
             //these pages have been deleted
             Page p = pages.remove(id);
-            checkForChildren(p);
+            unindex(p);
+            structural.add(p);
             
             File file = new File(outputDir, p.createFileName());
-            if (file.exists()) {
+            if (!explain && getOutputTree().exists(file)) {
                 callSvn("rm", file.getAbsolutePath());
                 svnCommitMessage.append("Deleted: " + file.getName() + "\n");                
-            }
-            if (file.exists()) {
+                //svn rm already deleted it when running with -svn
                 file.delete();
-            }            
-        }
-        while (checkIncludes()) {
-            // nothing
+                getOutputTree().deleted(file);
+            }
         }
+        invalidateDependents(structural, false);
+    }
+    
+    /**
+     * Reads the getPages response with StAX straight off the connection and fires off
+     * the getPage for each summary as soon as its id has been read rather than after
+     * the whole listing has been parsed into a DOM.
+     */
+    private void streamPages(final Set<String> allPages, final Set<Page> newPages,
+                             final List<Future<?>> futures) throws Exception {
+        final Document doc = DOMUtils.newDocument();
+        Element el = doc.createElementNS(SOAPNS, "ns1:getPages");
+        Element el2 = doc.createElement("in0");
+        el.appendChild(el2);
+        el2.setTextContent(loginToken);
+        el2 = doc.createElement("in1");
+        el.appendChild(el2);
+        el2.setTextContent(spaceKey);
+        doc.appendChild(el);
         
+        //on a retry the pages already dispatched are skipped
+        final Set<String> dispatched = new HashSet<String>();
+        retryPolicy.execute("soap", "getPages", new Callable<Void>() {
+            public Void call() throws Exception {
+                Dispatch<Source> disp = getSourceDispatch();
+                Source source;
+                try {
+                    source = disp.invoke(new DOMSource(doc.cloneNode(true)));
+                } catch (WebServiceException ex) {
+                    throw toStatusException(ex, disp);
+                }
+                XMLStreamReader reader = StaxUtils.createXMLStreamReader(source);
+                try {
+                    //getPagesResponse/getPagesReturn/summary/id
+                    int depth = reader.getEventType() == XMLStreamConstants.START_ELEMENT ? 1 : 0;
+                    while (reader.hasNext()) {
+                        int event = reader.next();
+                        if (event == XMLStreamConstants.START_ELEMENT) {
+                            depth++;
+                            if (depth == 4 && "id".equals(reader.getLocalName())) {
+                                //leaves the reader on the end element
+                                String id = reader.getElementText();
+                                depth--;
+                                if (dispatched.add(id)) {
+                                    futures.add(loadPage(id, allPages, newPages));
+                                }
+                            }
+                        } else if (event == XMLStreamConstants.END_ELEMENT) {
+                            depth--;
+                        }
+                    }
+                } finally {
+                    StaxUtils.close(reader);
+                }
+                return null;
+            }
+        });
+        System.out.println("(" + spaceKey + ") Found " + dispatched.size() + " pages");
     }
-
-    public boolean checkIncludes() {
-        for (Page p : modifiedPages) {
-            if (checkIncludes(p)) {
-                return true;
+    
+    /**
+     * Lists the pages of the space via the REST API which only returns the metadata
+     * of the pages.  The full page (with content) is only fetched if the version
+     * of the page is different than the cached version.
+     */
+    private void discoverPages(Set<String> allPages, Set<Page> newPages,
+                               List<Future<?>> futures) throws Exception {
+        int start = 0;
+        int unchanged = 0;
+        boolean hasNext = true;
+        while (hasNext) {
+            List<ContentSummary> summaries = new ArrayList<ContentSummary>(REST_PAGE_SIZE);
+            hasNext = loadSummaries("page", null, start, summaries);
+            if (summaries.isEmpty()) {
+                break;
+            }
+            start += summaries.size();
+            for (ContentSummary summary : summaries) {
+                if (!loadPageIfChanged(summary, allPages, newPages, futures)) {
+                    unchanged++;
+                }
             }
         }
-        return false;
+        System.out.println("(" + spaceKey + ") Discovered " + start + " pages, " + unchanged + " unchanged");
     }
     
-    public boolean checkIncludes(Page p) {
-        for (Page p2 : pages.values()) {
-            if (p2.includesPage(p.getTitle())
-                && !modifiedPages.contains(p2)) {
-                modifiedPages.add(p2);
-                return true;
+    /**
+     * Loads one page of content summaries, either of all the content of the given type
+     * in the space or, if cql is not null, of the search results. 
+     * @return true if there are more results
+     */
+    private boolean loadSummaries(final String type, final String cql, final int start, 
+                                  final List<ContentSummary> summaries) throws Exception {
+        return retryPolicy.execute("rest", cql == null ? "content" : "search", new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                Response r;
+                if (cql == null) {
+                    r = getContentResource().getContent(type, spaceKey, null, "current", null,
+                                                        "version,ancestors", start, REST_PAGE_SIZE);
+                } else {
+                    r = getContentResource().search(cql, null, "version,ancestors", start, REST_PAGE_SIZE);
+                }
+                InputStream ins = readEntity(r);
+                //might be a retry after a partial read
+                summaries.clear();
+                try {
+                    return ContentSummary.readResults(ins, summaries);
+                } finally {
+                    ins.close();
+                }
             }
-        }
+        });
+    }
+    
+    private boolean loadPageIfChanged(ContentSummary summary, Set<String> allPages, Set<Page> newPages,
+                                      List<Future<?>> futures) throws Exception {
+        Page page = pages.get(summary.getId());
+        if (page == null || !summary.isSameVersion(page)) {
+            futures.add(loadPage(summary.getId(), allPages, newPages));
+            return true;
+        }
+        allPages.remove(summary.getId());
         return false;
     }
-    public void checkForChildren(Page p) {
-        Page parent = pages.get(p.getParentId());
-        int d = 1;
-        while (parent != null) {
-            for (Page p2 : pages.values()) {
-                if (p2.hasChildrenOf(parent.getTitle(), d)
-                    && !modifiedPages.contains(p2)) {
-                    modifiedPages.add(p2);
+    
+    /**
+     * Uses a CQL search to only load the pages and blog entries that have been modified
+     * since the last successful run.  Deleted content is not detected.
+     */
+    public void loadChanges() throws Exception {
+        String since = new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date(lastRun - CHANGE_OVERLAP));
+        String cql = "space=\"" + spaceKey + "\" and type in (page,blogpost) and lastmodified > \""
+            + since + "\"";
+        System.out.println("(" + spaceKey + ") Loading changes since " + since);
+        
+        Set<String> allPages = new CopyOnWriteArraySet<String>();
+        Set<Page> newPages = new CopyOnWriteArraySet<Page>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        int start = 0;
+        int changed = 0;
+        boolean hasNext = true;
+        while (hasNext) {
+            List<ContentSummary> summaries = new ArrayList<ContentSummary>(REST_PAGE_SIZE);
+            hasNext = loadSummaries(null, cql, start, summaries);
+            if (summaries.isEmpty()) {
+                break;
+            }
+            start += summaries.size();
+            for (ContentSummary summary : summaries) {
+                if (summary.isPage()) {
+                    if (loadPageIfChanged(summary, allPages, newPages, futures)) {
+                        changed++;
+                    }
+                } else if (summary.isBlogPost()) {
+                    BlogEntrySummary oldEntry = blog.get(summary.getId());
+                    if (oldEntry == null || oldEntry.getVersion() != summary.getVersion()) {
+                        BlogEntrySummary entry = loadBlogEntry(summary.getId());
+                        blog.put(entry.getId(), entry);
+                        index(entry, oldEntry);
+                        System.out.println("Found modified Blog entry for " + entry.getTitle() 
+                                           + " " + entry.getPath());
+                        modifiedBlog.add(entry);
+                        changed++;
+                    }
                 }
             }
-            parent = pages.get(parent.getParentId());
-            d++;
+        }
+        System.out.println("(" + spaceKey + ") " + start + " recently modified, " + changed + " changed");
+        
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        invalidateDependents(newPages, false);
+    }
+
+    /**
+     * Adds the pages showing any of the modified pages to the modified pages.  The
+     * dependency graph is walked breadth first from the modified pages, so every page is
+     * looked at once no matter how many of the pages it shows have changed.
+     * @param structural the pages that were added or deleted, the pages listing the
+     *        children of any of their ancestors are modified as well
+     * @param blogChanged whether the pages listing the blog posts are modified
+     */
+    void invalidateDependents(Collection<Page> structural, boolean blogChanged) {
+        Set<String> seen = new HashSet<String>();
+        Queue<Page> queue = new ArrayDeque<Page>();
+        for (Page p : modifiedPages) {
+            if (seen.add(p.getId())) {
+                queue.add(p);
+            }
+        }
+        for (Page p : structural) {
+            Page parent = pages.get(p.getParentId());
+            int d = 1;
+            while (parent != null) {
+                invalidate(dependencies.getChildrenListedBy(parent.getTitle(), d), seen, queue,
+                           Invalidations.CHILDREN, parent.getTitle(), p);
+                parent = pages.get(parent.getParentId());
+                d++;
+            }
+        }
+        if (blogChanged) {
+            invalidate(dependencies.getBlogListedBy(), seen, queue, Invalidations.BLOG, null, null);
+        }
+        while (!queue.isEmpty()) {
+            Page p = queue.poll();
+            invalidate(dependencies.getIncludedBy(p.getTitle()), seen, queue,
+                       Invalidations.INCLUDES, p.getTitle(), p);
+        }
+    }
+    
+    private void invalidate(Collection<String> ids, Set<String> seen, Queue<Page> queue,
+                            String reason, String detail, Page cause) {
+        for (String id : ids) {
+            Page p = pages.get(id);
+            if (p != null && seen.add(id)) {
+                invalidations.record(p, reason, detail, cause);
+                modifiedPages.add(p);
+                queue.add(p);
+            }
         }
     }
     
-    public static synchronized Space getSpace(String key) { 
+    /**
+     * Concurrent lookups of the same space share a single getSpace call.  There is no
+     * lock held during the call so other requests are not held up by it.
+     */
+    public static Space getSpace(final String key) { 
         Space space = spaces.get(key);
         if (space == null) {
+            FutureTask<Space> load = new FutureTask<Space>(new Callable<Space>() {
+                public Space call() throws Exception {
+                    doLogin();
+                    
+                    Document doc = DOMUtils.newDocument();
+                    Element el = doc.createElementNS(SOAPNS, "ns1:getSpace");
+                    Element el2 = doc.createElement("in0");
+                    el.appendChild(el2);
+                    el2.setTextContent(loginToken);
+                    el2 = doc.createElement("in1");
+                    el.appendChild(el2);
+                    el2.setTextContent(key);
+                    doc.appendChild(el);
+                    
+                    Document out = invoke(doc);
+                    Space loaded = new Space(out);
+                    spaces.put(key, loaded);
+                    return loaded;
+                }
+            });
+            FutureTask<Space> existing = spaceLoads.putIfAbsent(key, load);
+            if (existing == null) {
+                existing = load;
+                load.run();
+            }
             try {
-                doLogin();
-                
-                Document doc = DOMUtils.newDocument();
-                Element el = doc.createElementNS(SOAPNS, "ns1:getSpace");
-                Element el2 = doc.createElement("in0");
-                el.appendChild(el2);
-                el2.setTextContent(loginToken);
-                el2 = doc.createElement("in1");
-                el.appendChild(el2);
-                el2.setTextContent(key);
-                doc.appendChild(el);
-                
-                Document out = getDispatch().invoke(doc);
-                space = new Space(out);
-                spaces.put(key, space);
+                space = existing.get();
             } catch (Exception e) {
+                //let the next lookup try again
+                spaceLoads.remove(key, existing);
                 e.printStackTrace();
             }
         }
@@ -1094,30 +2387,35 @@ public class SiteExporter implements Runnable {
     public Future<?> loadPage(Element pageSumEl,
                          final Set<String> allPages,
                          final Set<Page> newPages) throws Exception {
-        Document doc = DOMUtils.newDocument();
+        return loadPage(DOMUtils.getChildContent(pageSumEl, "id"), allPages, newPages);
+    }
+    
+    public Future<?> loadPage(final String pageId,
+                         final Set<String> allPages,
+                         final Set<Page> newPages) throws Exception {
+        final Document doc = DOMUtils.newDocument();
         Element el = doc.createElementNS(SOAPNS, "ns1:getPage");
         Element el2 = doc.createElement("in0");
         el.appendChild(el2);
         el2.setTextContent(loginToken);
         el2 = doc.createElement("in1");
         el.appendChild(el2);
-        el2.setTextContent(DOMUtils.getChildContent(pageSumEl, "id"));
+        el2.setTextContent(pageId);
         doc.appendChild(el);
         
-        //make sure we only fire off about 15-20 or confluence may get a bit overloaded
-        while (asyncCount.get() > 15) {
-            Thread.sleep(10);
-        }
-        asyncCount.incrementAndGet();
-        Future<?> f = getDispatch().invokeAsync(doc, new AsyncHandler<Document>() {
-            public void handleResponse(Response<Document> doc) {
+        //the limiter makes sure we don't fire off more than confluence can handle
+        return getRequestExecutor().submit(new Runnable() {
+            public void run() {
                 try {
-                    Page page = new Page(doc.get(), SiteExporter.this);
+                    Page page = new Page(invoke(doc), SiteExporter.this);
                     page.setExporter(SiteExporter.this);
                     Page oldPage = pages.put(page.getId(), page);
+                    index(page, oldPage);
                     if (oldPage == null || page.getModifiedTime().compare(oldPage.getModifiedTime()) > 0) {
                         if (!modifiedPages.contains(page)) {
                             modifiedPages.add(page);
+                            invalidations.record(page, oldPage == null ? Invalidations.NEW
+                                : Invalidations.MODIFIED, null, null);
                         }
                         if (oldPage == null) {
                             //need to check parents to see if it has a {children} tag so we can re-render
@@ -1128,36 +2426,39 @@ public class SiteExporter implements Runnable {
                         allPages.remove(page.getId());
                     }
                 } catch (Exception e) {
-                    e.printStackTrace();
-                } finally {
-                    asyncCount.decrementAndGet();
+                    //keep whatever we have cached, the page is picked up again on the next run
+                    System.out.println("(" + spaceKey + ") Could not load page " + pageId 
+                                       + ", deferring it: " + e.getMessage());
+                    allPages.remove(pageId);
+                    deferredIds.add(pageId);
                 }
             }
         });
-        return f;
     }    
     
-    private String updateContentLinks(AbstractPage page, String content,
+    private String updateContentLinks(AbstractPage page, Reader content,
                                       String id, String divCls) throws Exception {
         XMLReader parser = createTagSoupParser();
         StringWriter w = new StringWriter();
         parser.setContentHandler(createContentHandler(page, w, id, divCls));
-        parser.parse(new InputSource(new StringReader(content)));
-        content = w.toString();
+        parser.parse(new InputSource(content));
+        //trim the buffer in place rather than copying the page around with substring
+        StringBuffer buf = w.getBuffer();
         
-        if (content.indexOf("html>") != -1) {
-            content = content.substring("<html><body>".length());
-            content = content.substring(0, content.lastIndexOf("</body></html>"));
+        if (buf.indexOf("html>") != -1) {
+            buf.setLength(buf.lastIndexOf("</body></html>"));
+            buf.delete(0, "<html><body>".length());
         }
         
-        int idx = content.indexOf('>');
+        int idx = buf.indexOf(">");
         if (idx != -1
-            && content.substring(idx + 1).startsWith("<p></p>")) {
+            && buf.length() >= idx + 8
+            && "<p></p>".equals(buf.substring(idx + 1, idx + 8))) {
             //new confluence tends to stick an empty paragraph at the beginning for some pages (like Banner)
             //that causes major formatting issues.  Strip it.
-            content = content.substring(0, idx + 1) + content.substring(idx + 8);
+            buf.delete(idx + 1, idx + 8);
         }
-        return content;
+        return buf.toString();
     }
     protected XMLReader createTagSoupParser() throws Exception {
         XMLReader reader = new Parser();
@@ -1190,6 +2491,8 @@ public class SiteExporter implements Runnable {
         List<String> files = new ArrayList<String>();
         boolean forceAll = false;
         int maxThreads = -1;
+        int maxConnections = 20;
+        boolean compress = false;
         while (it.hasNext()) {
             String s = it.next();
             if ("-debug".equals(s)) {
@@ -1206,24 +2509,76 @@ public class SiteExporter implements Runnable {
                 svn = true;
             } else if ("-commit".equals(s)) {
                 commit = true;
+            } else if ("-restDiscovery".equals(s)) {
+                restDiscovery = true;
+            } else if ("-incremental".equals(s)) {
+                incremental = true;
+            } else if ("-fullScanInterval".equals(s)) {
+                //hours
+                fullScanInterval = Long.parseLong(it.next()) * 60 * 60 * 1000;
             } else if ("-maxThreads".equals(s)) {
                 maxThreads = Integer.parseInt(it.next());
+            } else if ("-gzip".equals(s)) {
+                compress = true;
+            } else if ("-maxConnections".equals(s)) {
+                maxConnections = Integer.parseInt(it.next());
+            } else if ("-downloadThreads".equals(s)) {
+                downloadThreads = Integer.parseInt(it.next());
+            } else if ("-fingerprint".equals(s)) {
+                fingerprint = true;
+            } else if ("-localThumbnails".equals(s)) {
+                localThumbnails = true;
+            } else if ("-blobStore".equals(s)) {
+                blobStoreDir = new File(it.next());
+            } else if ("-maxDownloadsPerHost".equals(s)) {
+                maxDownloadsPerHost = Integer.parseInt(it.next());
+            } else if ("-explain".equals(s)) {
+                explain = true;
+            } else if ("-maxRequests".equals(s)) {
+                limiter.setMaxLimit(Integer.parseInt(it.next()));
             } else if (s != null && s.length() > 0) {
                 files.add(s);
             }
         }
         
         
+        HttpTransport.init(maxConnections, compress);
+        if (blobStoreDir == null && !explain) {
+            //the default store is in the working copy
+            svnIgnore(rootOutputDir, BLOB_STORE_DIR);
+        }
+        if (fingerprint) {
+            cacheManifest = new CacheManifest(new File(rootOutputDir, CacheManifest.FILE_NAME));
+        }
+        
         List<SiteExporter> exporters = new ArrayList<SiteExporter>();
         for (String file : files) {
             exporters.add(new SiteExporter(file, forceAll));
         }
+        //discovery is mostly waiting on confluence, initialize all the spaces at once
+        //while the output tree is indexed
+        ExecutorService initExecutor = newDaemonPool(exporters.size() + 1);
+        Future<OutputTree> scan = initExecutor.submit(new Callable<OutputTree>() {
+            public OutputTree call() throws Exception {
+                return getOutputTree();
+            }
+        });
+        List<Future<Boolean>> initialized = new ArrayList<Future<Boolean>>(exporters.size());
+        for (final SiteExporter exporter : exporters) {
+            initialized.add(initExecutor.submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    return exporter.initialize();
+                }
+            }));
+        }
         List<SiteExporter> modified = new ArrayList<SiteExporter>();
-        for (SiteExporter exporter : exporters) {
-            if (exporter.initialize()) {
-                modified.add(exporter);
+        for (int x = 0; x < exporters.size(); x++) {
+            if (initialized.get(x).get()) {
+                modified.add(exporters.get(x));
             }
         }
+        scan.get();
+        initExecutor.shutdown();
         
         // render stuff only if needed
         if (!modified.isEmpty()) {
@@ -1233,13 +2588,7 @@ public class SiteExporter implements Runnable {
                 maxThreads = modified.size();
             }
 
-            ExecutorService executor = Executors.newFixedThreadPool(maxThreads, new ThreadFactory() {
-                    public Thread newThread(Runnable r) {
-                        Thread t = new Thread(r);
-                        t.setDaemon(true);
-                        return t;
-                    }
-                });
+            ExecutorService executor = newDaemonPool(maxThreads);
             List<Future<?>> futures = new ArrayList<Future<?>>(modified.size());
             for (SiteExporter exporter : modified) {
                 futures.add(executor.submit(exporter));
@@ -1248,8 +2597,21 @@ public class SiteExporter implements Runnable {
                 t.get();
             }
         }
+        if (downloader != null) {
+            int parts = downloader.deleteFailedParts();
+            if (parts > 0) {
+                System.out.println("Deleted the .part files of " + parts + " failed downloads");
+            }
+        }
                 
-        if (commit) {
+        if (cacheManifest != null && !explain) {
+            boolean exists = cacheManifest.exists();
+            cacheManifest.save();
+            if (!exists) {
+                callSvn(rootOutputDir, "add", CacheManifest.FILE_NAME);
+            }
+        }
+        if (commit && !explain) {
             File file = FileUtils.createTempFile("svncommit", "txt");
             FileWriter writer = new FileWriter(file);
             writer.write(svnCommitMessage.toString());
@@ -1257,14 +2619,18 @@ public class SiteExporter implements Runnable {
             callSvn(rootOutputDir, "commit", "-F", file.getAbsolutePath(), rootOutputDir.getAbsolutePath());
             svnCommitMessage.setLength(0);
         }
+        limiter.printStatistics(System.out);
+        if (downloader != null) {
+            downloader.printProgress();
+        }
+        if (blobStore != null) {
+            blobStore.save();
+        }
     }
 
     public boolean hasChildren(Page page) {
-        for (Page p : pages.values()) {
-            if (p == page) {
-                continue;
-            }
-            if (page.getId().equals(p.getParentId())) {
+        for (Page p : getChildPages(page.getId())) {
+            if (p != page) {
                 return true;
             }
         }
@@ -1273,11 +2639,8 @@ public class SiteExporter implements Runnable {
 
     public List<Page> getChildren(Page page) {
         List<Page> children = new ArrayList<Page>();
-        for (Page p : pages.values()) {
-            if (p == page) {
-                continue;
-            }
-            if (page.getId().equals(p.getParentId())) {
+        for (Page p : getChildPages(page.getId())) {
+            if (p != page) {
                 children.add(p);
             }
         }
@@ -1309,5 +2672,67 @@ public class SiteExporter implements Runnable {
         }
         return value;
     }
-    
+
+    /**
+     * An attachment download that was queued while syncing the attachments.
+     */
+    static final class PendingDownload {
+        final Attachment attachment;
+        final String directory;
+        final File file;
+        final boolean existed;
+        Future<Long> future;
+
+        PendingDownload(Attachment attachment, String directory, File file, boolean existed) {
+            this.attachment = attachment;
+            this.directory = directory;
+            this.file = file;
+            this.existed = existed;
+        }
+    }
+    /**
+     * A download that failed while rendering, tried once more before the commit.
+     */
+    static final class FailedDownload {
+        final String operation;
+        final String href;
+        final boolean auth;
+        final File file;
+        final long expectedSize;
+        final String directory;
+        final boolean existed;
+
+        FailedDownload(String operation, String href, boolean auth, File file, long expectedSize,
+                       String directory, boolean existed) {
+            this.operation = operation;
+            this.href = href;
+            this.auth = auth;
+            this.file = file;
+            this.expectedSize = expectedSize;
+            this.directory = directory;
+            this.existed = existed;
+        }
+    }
+    /**
+     * A thumbnail that is scaled from a downloaded attachment after rendering.
+     */
+    static final class PendingThumbnail {
+        final AbstractPage page;
+        final String href;
+        final File original;
+        final String directory;
+        final File file;
+        final boolean existed;
+        Future<Boolean> future;
+
+        PendingThumbnail(AbstractPage page, String href, File original, String directory, File file,
+                         boolean existed) {
+            this.page = page;
+            this.href = href;
+            this.original = original;
+            this.directory = directory;
+            this.file = file;
+            this.existed = existed;
+        }
+    }
 }
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Scales attachments down to thumbnails locally instead of downloading the thumbnails
+ * confluence generated.  The size matches the confluence default: the image is fit into
+ * a box of MAX_WIDTH x MAX_HEIGHT keeping the aspect ratio, smaller images are kept as is.
+ */
+public final class Thumbnails {
+
+    static final int MAX_WIDTH = 200;
+    static final int MAX_HEIGHT = 200;
+
+    private Thumbnails() {
+        //utility class
+    }
+
+    /**
+     * Writes the thumbnail in the format given by the extension of target.
+     * @return false if the original isn't an image ImageIO can read or the format can't be written
+     */
+    public static boolean scale(File original, File target) throws IOException {
+        BufferedImage image = ImageIO.read(original);
+        if (image == null) {
+            return false;
+        }
+        String format = getFormat(target.getName());
+        if (format == null) {
+            return false;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double factor = Math.min(1.0, Math.min((double)MAX_WIDTH / width, (double)MAX_HEIGHT / height));
+        int w = Math.max(1, (int)Math.round(width * factor));
+        int h = Math.max(1, (int)Math.round(height * factor));
+        
+        //jpeg can't store the alpha channel
+        boolean alpha = image.getColorModel().hasAlpha() && !"jpg".equals(format);
+        BufferedImage thumb = new BufferedImage(w, h, alpha ? BufferedImage.TYPE_INT_ARGB
+            : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumb.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        
+        File tmp = new File(target.getPath() + ".part");
+        if (!ImageIO.write(thumb, format, tmp)) {
+            Files.deleteIfExists(tmp.toPath());
+            return false;
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    static String getFormat(String fileName) {
+        int idx = fileName.lastIndexOf('.');
+        if (idx == -1) {
+            return null;
+        }
+        String ext = fileName.substring(idx + 1).toLowerCase(Locale.ENGLISH);
+        if ("jpeg".equals(ext)) {
+            ext = "jpg";
+        }
+        return ImageIO.getImageWritersBySuffix(ext).hasNext() ? ext : null;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class AttachmentTest {
+
+    @Test
+    public void shouldReadManifestFields() throws Exception {
+        // given
+        List<Attachment> results = new ArrayList<Attachment>();
+        InputStream ins = new FileInputStream("src/test/resources/attachments.json");
+
+        // when
+        boolean hasNext = Attachment.readResults(ins, results);
+        ins.close();
+
+        // then
+        Assert.assertTrue(hasNext);
+        Assert.assertEquals(results.size(), 1);
+        
+        Attachment att = results.get(0);
+        Assert.assertEquals(att.getId(), "att27843");
+        Assert.assertEquals(att.getPageId(), "27837");
+        Assert.assertEquals(att.getFileName(), "cxf architecture.png");
+        Assert.assertEquals(att.getVersion(), 3);
+        Assert.assertEquals(att.getSize(), 48213);
+        Assert.assertEquals(att.getModified(), "2013-05-21T10:12:44.000Z");
+        Assert.assertEquals(att.getDownloadPath(), 
+                            "/download/attachments/27837/cxf%20architecture.png?version=3&api=v2");
+    }
+
+    @Test
+    public void shouldDetectNewVersion() throws Exception {
+        // given
+        List<Attachment> results = new ArrayList<Attachment>();
+        InputStream ins = new FileInputStream("src/test/resources/attachments.json");
+        Attachment.readResults(ins, results);
+        ins.close();
+        Attachment downloaded = results.get(0);
+        ins = new FileInputStream("src/test/resources/attachments.json");
+        Attachment.readResults(ins, results);
+        ins.close();
+        Attachment current = results.get(1);
+
+        // when
+        boolean unchanged = current.isSameVersion(downloaded);
+        current.version = 4;
+        boolean newVersion = current.isSameVersion(downloaded);
+        current.version = downloaded.version;
+        current.size = downloaded.size + 1;
+        boolean newSize = current.isSameVersion(downloaded);
+        current.size = downloaded.size;
+        current.modified = "2014-01-02T08:00:00.000Z";
+        boolean newDate = current.isSameVersion(downloaded);
+
+        // then
+        Assert.assertNotSame(current, downloaded);
+        Assert.assertTrue(unchanged);
+        Assert.assertFalse(newVersion);
+        Assert.assertFalse(newSize);
+        Assert.assertFalse(newDate);
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class BlobStoreTest {
+
+    private static final String HREF = "https://cwiki.apache.org/confluence/download/attachments/1/a.png"
+        + "?version=1&modificationDate=1400000000000&api=v2";
+
+    @Test
+    public void shouldShareDownloadedFileBetweenPages() throws Exception {
+        // given
+        File dir = Files.createTempDirectory("blobs").toFile();
+        File page1 = new File(dir, "page1.data");
+        File page2 = new File(dir, "page2.data");
+        page1.mkdirs();
+        page2.mkdirs();
+        File downloaded = new File(page1, "a.png");
+        Files.write(downloaded.toPath(), "image".getBytes("UTF-8"));
+
+        BlobStore store = new BlobStore(new File(dir, ".blobs"));
+        store.store(HREF, downloaded);
+        store.save();
+
+        // when
+        File linked = new File(page2, "a.png");
+        boolean found = new BlobStore(new File(dir, ".blobs")).link(HREF, linked);
+
+        // then
+        Assert.assertTrue(found);
+        Assert.assertEquals(new String(Files.readAllBytes(linked.toPath()), "UTF-8"), "image");
+        Assert.assertTrue(store.getBlob(BlobStore.hash(linked)).exists());
+    }
+
+    @Test
+    public void shouldNotLinkUnversionedUrl() throws Exception {
+        // given
+        File dir = Files.createTempDirectory("blobs").toFile();
+        File downloaded = new File(dir, "avatar.png");
+        Files.write(downloaded.toPath(), "avatar".getBytes("UTF-8"));
+        String href = "https://cwiki.apache.org/confluence/download/attachments/2/user-avatar";
+
+        BlobStore store = new BlobStore(new File(dir, ".blobs"));
+        store.store(href, downloaded);
+
+        // when
+        boolean found = store.link(href, new File(dir, "other.png"));
+
+        // then
+        Assert.assertFalse(found);
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.util.Collections;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class BreadcrumbsTest {
+
+    @Test
+    public void shouldRebuildTrailOfChildrenWhenParentIsRenamed() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        SiteExporter.apiVersion = 1;
+        exporter.breadCrumbRoot = null;
+        Page root = PageFixtures.addPage(exporter, "1", null, "Index");
+        PageFixtures.addPage(exporter, "2", "1", "Guide");
+        Page leaf = PageFixtures.addPage(exporter, "3", "2", "Setup");
+        Assert.assertEquals(exporter.breadcrumbs(leaf), "<a href=\"index.html\">Index</a>"
+            + SiteExporter.SEPARATOR + "<a href=\"guide.html\">Guide</a>"
+            + SiteExporter.SEPARATOR + "<a href=\"setup.html\">Setup</a>");
+
+        // when
+        PageFixtures.addPage(exporter, "2", "1", "User Guide");
+
+        // then
+        Assert.assertEquals(exporter.breadcrumbs(leaf), "<a href=\"index.html\">Index</a>"
+            + SiteExporter.SEPARATOR + "<a href=\"user-guide.html\">User Guide</a>"
+            + SiteExporter.SEPARATOR + "<a href=\"setup.html\">Setup</a>");
+        Assert.assertTrue(exporter.hasChildren(root));
+        Assert.assertEquals(exporter.getChildren(root).get(0).getTitle(), "User Guide");
+        Assert.assertFalse(exporter.hasChildren(leaf));
+        Assert.assertEquals(exporter.getChildren(exporter.findPageByID("2")),
+                            Collections.singletonList(leaf));
+    }
+
+    @Test
+    public void shouldMoveChildToNewParent() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        SiteExporter.apiVersion = 1;
+        exporter.breadCrumbRoot = null;
+        Page first = PageFixtures.addPage(exporter, "1", null, "First");
+        Page second = PageFixtures.addPage(exporter, "2", null, "Second");
+        Page leaf = PageFixtures.addPage(exporter, "3", "1", "Leaf");
+        exporter.breadcrumbs(leaf);
+
+        // when
+        Page moved = PageFixtures.addPage(exporter, "3", "2", "Leaf");
+
+        // then
+        Assert.assertFalse(exporter.hasChildren(first));
+        Assert.assertEquals(exporter.getChildren(second), Collections.singletonList(moved));
+        Assert.assertEquals(exporter.breadcrumbs(moved), "<a href=\"second.html\">Second</a>"
+            + SiteExporter.SEPARATOR + "<a href=\"leaf.html\">Leaf</a>");
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class CacheManifestTest {
+
+    private static final String DIAGRAM = "index.data/diagram.3f2a9c1e7b40.png";
+    private static final String LOGO = "faq.thumbs/logo.0123456789ab.png";
+
+    @Test
+    public void shouldKeepPathsOfEarlierRuns() throws Exception {
+        // given
+        File file = new File(Files.createTempDirectory("site").toFile(), CacheManifest.FILE_NAME);
+        CacheManifest manifest = new CacheManifest(file);
+        manifest.addImmutable(DIAGRAM);
+        manifest.save();
+
+        // when
+        CacheManifest next = new CacheManifest(file);
+        next.addImmutable(LOGO);
+        next.save();
+
+        // then
+        CacheManifest read = new CacheManifest(file);
+        Assert.assertEquals(read.getCacheControl(DIAGRAM), CacheManifest.IMMUTABLE);
+        Assert.assertEquals(read.getCacheControl(LOGO), CacheManifest.IMMUTABLE);
+        Assert.assertNull(read.getCacheControl("index.data/diagram.png"));
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class ContentSummaryTest {
+
+    @Test
+    public void shouldReadVersionAndParent() throws Exception {
+        // given
+        List<ContentSummary> results = new ArrayList<ContentSummary>();
+        InputStream ins = new FileInputStream("src/test/resources/content.json");
+
+        // when
+        boolean hasNext = ContentSummary.readResults(ins, results);
+        ins.close();
+
+        // then
+        Assert.assertTrue(hasNext);
+        Assert.assertEquals(results.size(), 2);
+        
+        ContentSummary index = results.get(0);
+        Assert.assertEquals(index.getId(), "27837");
+        Assert.assertEquals(index.getTitle(), "Index");
+        Assert.assertEquals(index.getVersion(), 42);
+        Assert.assertEquals(index.getParentId(), ContentSummary.NO_PARENT);
+        Assert.assertTrue(index.isPage());
+
+        ContentSummary lists = results.get(1);
+        Assert.assertEquals(lists.getTitle(), "Mailing Lists");
+        Assert.assertEquals(lists.getVersion(), 7);
+        Assert.assertEquals(lists.getModified(), "2014-01-10T09:01:00.000Z");
+        Assert.assertEquals(lists.getParentId(), "27840");
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class DependencyGraphTest {
+
+    @Test
+    public void shouldInvalidatePagesListingAndIncludingNewPage() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        SiteExporter.apiVersion = 1;
+        PageFixtures.addPage(exporter, "1", "0", "Guide");
+        PageFixtures.addPage(exporter, "2", "1", "Setup");
+        PageFixtures.addPage(exporter, "3", "0", "Overview", "{children:page=Guide|depth=2}");
+        PageFixtures.addPage(exporter, "4", "0", "Index", "{include:Overview}");
+        PageFixtures.addPage(exporter, "5", "0", "Contents", "{children:page=Guide}");
+        PageFixtures.addPage(exporter, "6", "0", "News", "{blog-posts}");
+        Page added = PageFixtures.addPage(exporter, "7", "2", "Maven");
+        exporter.modifiedPages.add(added);
+
+        // when
+        exporter.invalidateDependents(Collections.singletonList(added), false);
+
+        // then
+        Assert.assertEquals(getIds(exporter), new HashSet<String>(Arrays.asList("7", "3", "4")));
+    }
+
+    @Test
+    public void shouldInvalidatePagesListingBlogAndDropReplacedEdges() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        SiteExporter.apiVersion = 1;
+        PageFixtures.addPage(exporter, "1", "0", "News", "{blog-posts}");
+        PageFixtures.addPage(exporter, "2", "0", "Index", "{include:News}");
+        PageFixtures.addPage(exporter, "3", "0", "Old News", "{blog-posts}");
+        PageFixtures.addPage(exporter, "3", "0", "Old News", "nothing to see");
+
+        // when
+        exporter.invalidateDependents(Collections.<Page>emptyList(), true);
+
+        // then
+        Assert.assertEquals(getIds(exporter), new HashSet<String>(Arrays.asList("1", "2")));
+        Assert.assertEquals(exporter.dependencies.getIncludedBy("News"), Collections.singleton("2"));
+        Assert.assertTrue(exporter.dependencies.getIncludedBy("Old News").isEmpty());
+    }
+
+    @Test
+    public void shouldExplainWhyPagesAreInvalidated() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        SiteExporter.apiVersion = 1;
+        PageFixtures.addPage(exporter, "1", "0", "Guide");
+        PageFixtures.addPage(exporter, "2", "0", "Overview", "{children:page=Guide}");
+        PageFixtures.addPage(exporter, "3", "0", "Index", "{include:Overview}");
+        Page added = PageFixtures.addPage(exporter, "4", "1", "Setup");
+        exporter.modifiedPages.add(added);
+        exporter.invalidations.record(added, Invalidations.NEW, null, null);
+
+        // when
+        exporter.invalidateDependents(Collections.singletonList(added), false);
+
+        // then
+        List<Invalidations.Reason> chain = exporter.invalidations.getChain("3");
+        Assert.assertEquals(chain.size(), 3);
+        Assert.assertEquals(chain.get(0).toString(), "includes Overview (Overview)");
+        Assert.assertEquals(chain.get(1).toString(), "lists children Guide (Setup)");
+        Assert.assertEquals(chain.get(2).toString(), "new");
+        Map<String, Integer> counts = exporter.invalidations.getCounts(exporter.modifiedPages);
+        Assert.assertEquals(counts.get(Invalidations.INCLUDES), Integer.valueOf(1));
+        Assert.assertEquals(counts.get(Invalidations.CHILDREN), Integer.valueOf(1));
+        Assert.assertEquals(counts.get(Invalidations.NEW), Integer.valueOf(1));
+    }
+
+    @Test
+    public void shouldExplainPagesWithChangedAttachments() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        SiteExporter.apiVersion = 1;
+        Page owner = PageFixtures.addPage(exporter, "27837", "0", "Architecture");
+        PageFixtures.addPage(exporter, "2", "0", "Index", "{include:Architecture}");
+        List<Attachment> current = new ArrayList<Attachment>();
+        InputStream ins = new FileInputStream("src/test/resources/attachments.json");
+        Attachment.readResults(ins, current);
+        ins.close();
+        Attachment old = current.get(0);
+        ins = new FileInputStream("src/test/resources/attachments.json");
+        Attachment.readResults(ins, current);
+        ins.close();
+        old.version = 2;
+        exporter.attachmentManifest.put(old.getId(), old);
+        current.remove(old);
+
+        // when
+        int changed = exporter.checkAttachments(current, new HashSet<String>(), new ArrayList<Attachment>());
+
+        // then
+        Assert.assertEquals(changed, 1);
+        Assert.assertEquals(getIds(exporter), new HashSet<String>(Arrays.asList("27837", "2")));
+        Assert.assertEquals(exporter.invalidations.getReason("27837").toString(),
+                            "attachment changed cxf architecture.png");
+        Assert.assertEquals(exporter.invalidations.getReason("2").getCauseId(), owner.getId());
+        Map<String, Integer> counts = exporter.invalidations.getCounts(exporter.modifiedPages);
+        Assert.assertEquals(counts.get(Invalidations.ATTACHMENT), Integer.valueOf(1));
+        Assert.assertEquals(counts.get(Invalidations.INCLUDES), Integer.valueOf(1));
+    }
+
+    private static Set<String> getIds(SiteExporter exporter) {
+        Set<String> ids = new HashSet<String>();
+        for (Page p : exporter.modifiedPages) {
+            ids.add(p.getId());
+        }
+        return ids;
+    }
+}
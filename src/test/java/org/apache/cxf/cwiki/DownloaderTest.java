@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class DownloaderTest {
+
+    private static final long LAST_MODIFIED = 1400000000000L;
+
+    @Test
+    public void shouldResumePartialDownload() throws Exception {
+        // given
+        final byte[] body = new byte[100000];
+        for (int x = 0; x < body.length; x++) {
+            body[x] = (byte)x;
+        }
+        final String[] range = new String[1];
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                range[0] = exchange.getRequestHeaders().getFirst("Range");
+                int start = 0;
+                if (range[0] != null 
+                    && Downloader.formatDate(LAST_MODIFIED).equals(exchange.getRequestHeaders()
+                                                                   .getFirst("If-Range"))) {
+                    start = Integer.parseInt(range[0].substring(6, range[0].length() - 1));
+                }
+                exchange.getResponseHeaders().add("Last-Modified", Downloader.formatDate(LAST_MODIFIED));
+                exchange.sendResponseHeaders(start > 0 ? 206 : 200, body.length - start);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body, start, body.length - start);
+                out.close();
+            }
+        });
+        server.start();
+
+        File file = File.createTempFile("download", ".png");
+        file.delete();
+        File part = new File(file.getPath() + ".part");
+        FileOutputStream out = new FileOutputStream(part);
+        out.write(body, 0, 40000);
+        out.close();
+        part.setLastModified(LAST_MODIFIED);
+
+        Downloader downloader = new Downloader(new RetryPolicy(new RequestLimiter(1, 1)), 1, 1);
+        String href = "http://localhost:" + server.getAddress().getPort() + "/download/attachments/1/a.png";
+
+        try {
+            // when
+            long size = downloader.download("attachment", href, null, file, body.length);
+
+            // then
+            Assert.assertEquals(range[0], "bytes=40000-");
+            Assert.assertEquals(size, body.length);
+            Assert.assertFalse(part.exists());
+            Assert.assertTrue(Arrays.equals(Files.readAllBytes(file.toPath()), body));
+        } finally {
+            server.stop(0);
+            downloader.shutdown();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldRevalidateWithETag() throws Exception {
+        // given
+        final byte[] body = "avatar".getBytes("UTF-8");
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+
+        File file = File.createTempFile("user-avatar", ".png");
+        Downloader downloader = new Downloader(new RetryPolicy(new RequestLimiter(1, 1)), 1, 1);
+        String href = "http://localhost:" + server.getAddress().getPort()
+            + "/download/attachments/2/user-avatar";
+        Downloader.Validators validators = new Downloader.Validators();
+
+        try {
+            // when
+            downloader.download("userimage", href, null, file, -1, validators);
+            long size = downloader.download("userimage", href, null, file, -1, validators);
+
+            // then
+            Assert.assertEquals(validators.getETag(), "\"v1\"");
+            Assert.assertTrue(validators.isNotModified());
+            Assert.assertEquals(size, 0);
+            Assert.assertTrue(Arrays.equals(Files.readAllBytes(file.toPath()), body));
+        } finally {
+            server.stop(0);
+            downloader.shutdown();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldNotHoldHostWhileWaitingToRetry() throws Exception {
+        // given
+        final byte[] body = "diagram".getBytes("UTF-8");
+        final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch throttled = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                requests.add(path);
+                if (path.endsWith("/a.png") && throttled.getCount() > 0) {
+                    exchange.getResponseHeaders().add("Retry-After", "1");
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    throttled.countDown();
+                    return;
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+
+        File first = File.createTempFile("retried", ".png");
+        File second = File.createTempFile("waiting", ".png");
+        Downloader downloader = new Downloader(new RetryPolicy(new RequestLimiter(2, 2)), 2, 1);
+        String base = "http://localhost:" + server.getAddress().getPort() + "/download/attachments/3";
+
+        try {
+            // when
+            Future<Long> retried = downloader.submit("attachment", base + "/a.png", null, first, body.length);
+            throttled.await();
+            downloader.download("attachment", base + "/b.png", null, second, body.length);
+            retried.get();
+
+            // then
+            Assert.assertEquals(requests, Arrays.asList("/download/attachments/3/a.png",
+                                                        "/download/attachments/3/b.png",
+                                                        "/download/attachments/3/a.png"));
+        } finally {
+            server.stop(0);
+            downloader.shutdown();
+            first.delete();
+            second.delete();
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import javax.imageio.ImageIO;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class ImageSizesTest {
+
+    @Test
+    public void shouldReadSizeAgainWhenImageChanges() throws Exception {
+        // given
+        File file = new File(Files.createTempDirectory("images").toFile(), "logo.png");
+        ImageIO.write(new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB), "png", file);
+        Dimension first = ImageSizes.get(file);
+
+        // when
+        ImageIO.write(new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB), "png", file);
+        file.setLastModified(file.lastModified() + 2000);
+        Dimension second = ImageSizes.get(file);
+
+        // then
+        Assert.assertEquals(first, new Dimension(30, 20));
+        Assert.assertEquals(second, new Dimension(300, 200));
+        Assert.assertNull(ImageSizes.get(new File(file.getParentFile(), "missing.png")));
+    }
+
+    @Test
+    public void shouldNotSizeDashCopyWhileAttachmentDownloads() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        exporter.outputDir = Files.createTempDirectory("content").toFile();
+        PageFixtures.addPage(exporter, "27837", "0", "Architecture");
+        File dir = new File(exporter.outputDir, "architecture.data");
+        dir.mkdirs();
+        File dashed = new File(dir, "a-b-c.png");
+        ImageIO.write(new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB), "png", dashed);
+        Attachment att = new Attachment();
+        att.id = "att1";
+        att.pageId = "27837";
+        att.fileName = "a-b c.png";
+        att.version = 2;
+        att.downloadPath = "/download/attachments/27837/a-b%20c.png?version=2&api=v2";
+        Attachment old = new Attachment();
+        old.id = att.id;
+        old.fileName = att.fileName;
+        old.version = 1;
+        old.directory = "architecture.data";
+        exporter.attachmentManifest.put(old.id, old);
+        exporter.checkAttachments(Collections.singletonList(att), new HashSet<String>(),
+                                  new ArrayList<Attachment>());
+
+        // when
+        File original = new File(dir, "a-b c.png");
+        exporter.pendingFiles.put(original, new FutureTask<Long>(new Callable<Long>() {
+            public Long call() {
+                return 0L;
+            }
+        }));
+
+        // then
+        Assert.assertEquals(exporter.getDashedOriginal(dashed), original);
+        Assert.assertNull(exporter.getImageSize(dashed));
+        Assert.assertEquals(exporter.getDashedOriginal(original), original);
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import java.io.ByteArrayInputStream;
+import java.io.Reader;
+
+import org.apache.cxf.helpers.IOUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class JsonStringReaderTest {
+
+    private static final String JSON = "{\"id\":\"27837\",\"type\":\"page\",\"version\":{\"number\":3},"
+        + "\"ancestors\":[{\"id\":\"1\",\"title\":\"a \\\"}\"}],\"extensions\":null,"
+        + "\"body\": {\"storage\":{\"value\":\"wrong\"},\n \"export_view\" : {\"value\":"
+        + "\"<p class=\\\"x\\\">caf\\u00e9 \\\\ a\\/b\\n</p>\",\"representation\":\"storage\"}}}";
+
+    @Test
+    public void shouldStreamNestedValue() throws Exception {
+        // when
+        Reader reader = JsonStringReader.open(new ByteArrayInputStream(JSON.getBytes("UTF-8")),
+                                              "<div>", "</div>", "body", "export_view", "value");
+
+        // then
+        Assert.assertNotNull(reader);
+        Assert.assertEquals(IOUtils.toString(reader), "<div><p class=\"x\">caf\u00e9 \\ a/b\n</p></div>");
+        reader.close();
+    }
+
+    @Test
+    public void shouldReturnNullWithoutValue() throws Exception {
+        // when
+        Reader reader = JsonStringReader.open(new ByteArrayInputStream(JSON.getBytes("UTF-8")),
+                                              "<div>", "</div>", "body", "view", "value");
+
+        // then
+        Assert.assertNull(reader);
+    }
+
+}
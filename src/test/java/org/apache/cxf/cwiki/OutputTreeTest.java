@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class OutputTreeTest {
+
+    @Test
+    public void shouldIndexTreeAndTrackWrites() throws Exception {
+        // given
+        File root = Files.createTempDirectory("site").toFile();
+        File page = new File(root, "docs/index.html");
+        page.getParentFile().mkdirs();
+        Files.write(page.toPath(), "<html/>".getBytes("UTF-8"));
+        File blobs = new File(root, ".blobs");
+        new File(blobs, "ab").mkdirs();
+        new File(root, ".svn").mkdirs();
+
+        // when
+        OutputTree tree = new OutputTree(root, blobs);
+        tree.scan(2);
+        File data = new File(root, "docs/index.data");
+        boolean created = tree.mkdirs(data);
+        tree.created(new File(data, "diagram.png"));
+
+        // then
+        Assert.assertTrue(tree.exists(page));
+        Assert.assertTrue(tree.exists(page.getParentFile()));
+        Assert.assertFalse(tree.exists(new File(blobs, "ab")));
+        Assert.assertFalse(tree.exists(new File(root, ".svn")));
+        Assert.assertTrue(created);
+        Assert.assertTrue(data.isDirectory());
+        Assert.assertTrue(tree.exists(new File(data, "diagram.png")));
+
+        tree.deleted(page);
+        Assert.assertFalse(tree.exists(page));
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.apache.cxf.helpers.DOMUtils;
+
+/**
+ * Builds pages the way getPage returns them for the tests that need a handful of
+ * related pages rather than the single one in page.xml.
+ */
+final class PageFixtures {
+
+    static final String MODIFIED = "2017-03-01T10:00:00.000Z";
+
+    private PageFixtures() {
+        //utility class
+    }
+
+    /**
+     * @param fields the names and values of the child elements, the ones with a null
+     *        value are left out
+     */
+    static Element createElement(String... fields) throws Exception {
+        Document doc = DOMUtils.createDocument();
+        Element el = doc.createElement("page");
+        doc.appendChild(el);
+        for (int x = 0; x < fields.length; x += 2) {
+            if (fields[x + 1] != null) {
+                Element c = doc.createElement(fields[x]);
+                c.setTextContent(fields[x + 1]);
+                el.appendChild(c);
+            }
+        }
+        return el;
+    }
+
+    static AbstractPage createPage(String id, String title, String url) throws Exception {
+        return new AbstractPage(createElement("id", id, "title", title, "url", url));
+    }
+
+    static Page addPage(SiteExporter exporter, String id, String parentId,
+                        String title) throws Exception {
+        return addPage(exporter, id, parentId, title, null);
+    }
+
+    /**
+     * Creates a page and adds it to the exporter the way loadPage does.
+     * @param content the storage format of the page, may be null
+     */
+    static Page addPage(SiteExporter exporter, String id, String parentId, String title,
+                        String content) throws Exception {
+        Page page = new Page(createElement("id", id, "parentId", parentId, "title", title,
+                                           "modified", MODIFIED, "content", content), exporter);
+        Page old = exporter.pages.put(page.getId(), page);
+        exporter.index(page, old);
+        return page;
+    }
+
+    /**
+     * Creates a blog entry and adds it to the exporter the way loadBlog does.
+     */
+    static BlogEntrySummary addBlogEntry(SiteExporter exporter, String id, String title,
+                                         String published) throws Exception {
+        BlogEntrySummary entry = new BlogEntrySummary(createElement("id", id, "title", title,
+                                                                    "publishDate", published));
+        BlogEntrySummary old = exporter.blog.put(entry.getId(), entry);
+        exporter.index(entry, old);
+        return entry;
+    }
+}
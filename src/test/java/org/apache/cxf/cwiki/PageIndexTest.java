@@ -0,0 +1,70 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class PageIndexTest {
+
+    @Test
+    public void shouldResolveHostRelativeLinks() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        AbstractPage page = PageFixtures.createPage("42", "How To",
+                                       "https://cwiki.apache.org/confluence/display/CXF20DOC/How+To");
+        PageIndex index = new PageIndex();
+        index.add(exporter, page);
+        index.addSpace("https://cwiki.apache.org/confluence/display/CXF20DOC", exporter);
+
+        // when
+        PageIndex.Entry byUrl = index.findByURL("/confluence/display/CXF20DOC/How+To");
+        PageIndex.Entry byId = index.findById("42");
+
+        // then
+        Assert.assertSame(byUrl.getPage(), page);
+        Assert.assertSame(byUrl.getExporter(), exporter);
+        Assert.assertSame(byId.getPage(), page);
+        Assert.assertSame(index.findSpace("/confluence/display/CXF20DOC/"), exporter);
+        Assert.assertNull(index.findByURL("/confluence/display/CXF20DOC/Other"));
+
+        index.remove(page);
+        Assert.assertNull(index.findByURL("/confluence/display/CXF20DOC/How+To"));
+        Assert.assertNull(index.findById("42"));
+    }
+
+    @Test
+    public void shouldDropOldUrlOfRenamedPage() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        PageIndex index = new PageIndex();
+        index.add(exporter, PageFixtures.createPage("42", "Old",
+            "https://cwiki.apache.org/confluence/display/CXF/Old"));
+
+        // when
+        AbstractPage renamed = PageFixtures.createPage("42", "New",
+            "https://cwiki.apache.org/confluence/display/CXF/New");
+        index.add(exporter, renamed);
+
+        // then
+        Assert.assertNull(index.findByURL("/confluence/display/CXF/Old"));
+        Assert.assertSame(index.findByURL("/confluence/display/CXF/New").getPage(), renamed);
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class RequestLimiterTest {
+
+    @Test
+    public void shouldGrowToCeilingAndBackOffOnErrors() throws Exception {
+        // given
+        RequestLimiter limiter = new RequestLimiter(4, 6);
+
+        // when
+        for (int x = 0; x < 100; x++) {
+            limiter.acquire("getPage");
+            limiter.release("getPage", System.nanoTime() - 1000000, true);
+        }
+
+        // then
+        Assert.assertEquals(limiter.getLimit(), 6);
+        
+        // when
+        long start = limiter.acquire("getPage");
+        Thread.sleep(5);
+        limiter.release("getPage", start, false);
+        
+        // then
+        Assert.assertEquals(limiter.getLimit(), 4);
+        Assert.assertEquals(limiter.getInFlight(), 0);
+    }
+
+}
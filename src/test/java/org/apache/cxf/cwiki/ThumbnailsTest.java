@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.cxf.cwiki;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class ThumbnailsTest {
+
+    @Test
+    public void shouldFitIntoThumbnailBox() throws Exception {
+        // given
+        File dir = Files.createTempDirectory("thumbs").toFile();
+        File original = new File(dir, "diagram.png");
+        ImageIO.write(new BufferedImage(800, 400, BufferedImage.TYPE_INT_ARGB), "png", original);
+        File thumb = new File(dir, "diagram_thumb.png");
+
+        // when
+        boolean scaled = Thumbnails.scale(original, thumb);
+
+        // then
+        Assert.assertTrue(scaled);
+        BufferedImage image = ImageIO.read(thumb);
+        Assert.assertEquals(image.getWidth(), Thumbnails.MAX_WIDTH);
+        Assert.assertEquals(image.getHeight(), Thumbnails.MAX_WIDTH / 2);
+    }
+
+    @Test
+    public void shouldNotScaleNonImage() throws Exception {
+        // given
+        File dir = Files.createTempDirectory("thumbs").toFile();
+        File original = new File(dir, "notes.png");
+        Files.write(original.toPath(), "not an image".getBytes("UTF-8"));
+
+        // when
+        boolean scaled = Thumbnails.scale(original, new File(dir, "notes_thumb.png"));
+
+        // then
+        Assert.assertFalse(scaled);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.cxf.cwiki;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+@Test
+public class TitleIndexTest {
+
+    @Test
+    public void shouldFindRenamedPageByNewTitleOnly() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        PageFixtures.addPage(exporter, "1", null, "Old", null);
+
+        // when
+        Page renamed = PageFixtures.addPage(exporter, "1", null, "New", null);
+
+        // then
+        Assert.assertNull(exporter.findPage("Old"));
+        Assert.assertSame(exporter.findPage("New"), renamed);
+    }
+
+    @Test
+    public void shouldForgetDeletedPage() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        Page page = PageFixtures.addPage(exporter, "1", null, "Guide", null);
+
+        // when
+        exporter.pages.remove(page.getId());
+        exporter.unindex(page);
+
+        // then
+        Assert.assertNull(exporter.findPage("Guide"));
+    }
+
+    @Test
+    public void shouldHandDuplicateBlogTitleOverOnRename() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        BlogEntrySummary first = PageFixtures.addBlogEntry(exporter, "1", "Release", "2017-03-01");
+        BlogEntrySummary second = PageFixtures.addBlogEntry(exporter, "2", "Release", "2017-04-01");
+        BlogEntrySummary indexed = exporter.findBlogEntry("Release");
+        BlogEntrySummary other = indexed == first ? second : first;
+
+        // when
+        BlogEntrySummary renamed = PageFixtures.addBlogEntry(exporter, indexed.getId(),
+                                                             "Release Notes", "2017-03-01");
+
+        // then
+        Assert.assertSame(exporter.findBlogEntry("Release"), other);
+        Assert.assertSame(exporter.findBlogEntry("Release Notes"), renamed);
+    }
+
+    @Test
+    public void shouldHandDuplicateBlogTitleOverOnDelete() throws Exception {
+        // given
+        SiteExporter exporter = new SiteExporter("src/test/resources/docs.cfg", true);
+        BlogEntrySummary first = PageFixtures.addBlogEntry(exporter, "1", "Release", "2017-03-01");
+        BlogEntrySummary second = PageFixtures.addBlogEntry(exporter, "2", "Release", "2017-04-01");
+        BlogEntrySummary indexed = exporter.findBlogEntry("Release");
+        BlogEntrySummary other = indexed == first ? second : first;
+
+        // when
+        exporter.blog.remove(indexed.getId());
+        exporter.unindex(indexed);
+
+        // then
+        Assert.assertSame(exporter.findBlogEntry("Release"), other);
+    }
+}